@@ -1,4 +1,11 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Block {
     public String hash;
@@ -6,45 +13,161 @@ public class Block {
     private String data; 
     private long timeStamp;
     private int nonce;
+    private int bits; // compact target this block was mined against, 0 if never mined
+
+    // Header formats: LEGACY hashes the string previousHash + timeStamp + nonce + data,
+    // BINARY hashes [len|previousHash][timeStamp][sha256(data)][bits][nonce] so the nonce comes last
+    public static final int LEGACY_HEADER = 0;
+    public static final int BINARY_HEADER = 1;
+    public static int defaultHeaderFormat = BINARY_HEADER;
+
+    // Where mining reports hashes, nonces per block and time to block
+    public static MiningStats stats = MiningStats.GLOBAL;
+
+    private final int headerFormat;
 
     public Block(String data, String previousHash) {
+        this(data, previousHash, defaultHeaderFormat);
+    }
+
+    public Block(String data, String previousHash, int headerFormat) {
         this.data = data;
         this.previousHash = previousHash;
         this.timeStamp = System.currentTimeMillis();
+        this.headerFormat = headerFormat;
         this.hash = calculateHash();
     }
 
+    public int getHeaderFormat() {
+        return headerFormat;
+    }
+
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    public int getBits() {
+        return bits;
+    }
+
+    // True if the hash meets the target the block was mined against; unmined blocks claim no work
+    public boolean meetsTarget() {
+        return bits == 0 || Target.meets(hash, bits);
+    }
+
     public String calculateHash() {
-        String input = previousHash + Long.toString(timeStamp) + Integer.toString(nonce) + data;
-        return applySha256(input);
+        return calculateHash(nonce);
+    }
+
+    // Verification hashes once, so the prefix is built for the call and not kept on the block
+    private String calculateHash(int nonce) {
+        byte[] out = new byte[Sha256.LENGTH];
+        hashHeader(nonce, headerPrefix(), out);
+        return Sha256.hex(out, 0);
     }
 
+    // Hashes the header for nonce into out, given headerPrefix(). The BINARY path allocates
+    // nothing and, because data is committed by its digest, costs the same whatever its size.
+    private void hashHeader(int nonce, byte[] prefix, byte[] out) {
+        if (headerFormat == LEGACY_HEADER) {
+            Sha256.hash(previousHash + Long.toString(timeStamp) + Integer.toString(nonce) + data, out, 0);
+            return;
+        }
+        MessageDigest digest = Sha256.digest();
+        digest.update(prefix);
+        out[0] = (byte) (nonce >>> 24);
+        out[1] = (byte) (nonce >>> 16);
+        out[2] = (byte) (nonce >>> 8);
+        out[3] = (byte) nonce;
+        digest.update(out, 0, Integer.BYTES);
+        Sha256.finish(digest, out, 0);
+    }
+
+    // Fixed part of the BINARY header, from the current previousHash and bits (null for LEGACY).
+    // Mining builds it once per search and keeps it in a local, so no block holds on to it.
+    private byte[] headerPrefix() {
+        if (headerFormat == LEGACY_HEADER) return null;
+        byte[] prev = previousHash.getBytes(StandardCharsets.UTF_8);
+        byte[] body = data.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer prefix = ByteBuffer.allocate(4 + prev.length + 8 + Sha256.LENGTH + 4);
+        prefix.putInt(prev.length).put(prev).putLong(timeStamp);
+        Sha256.hash(body, 0, body.length, prefix.array(), prefix.position());
+        prefix.position(prefix.position() + Sha256.LENGTH);
+        prefix.putInt(bits);
+        return prefix.array();
+    }
+
+    // difficulty = number of leading hex zeros, kept for callers that think in those terms
     public void mineBlock(int difficulty) {
-        String target = new String(new char[difficulty]).replace('\0', '0');
+        mine(Target.fromLeadingZeros(difficulty));
+    }
+
+    public void mineBlock(int difficulty, ForkJoinPool pool) {
+        mine(Target.fromLeadingZeros(difficulty), pool);
+    }
+
+    public void mine(int bits) {
+        this.bits = bits;
+        byte[] target = Target.expand(bits);
+        byte[] out = new byte[Sha256.LENGTH];
+        long start = System.nanoTime();
+        long tried = 1;
+        byte[] prefix = headerPrefix();
+        hashHeader(nonce, prefix, out);
 
-        while (!hash.substring(0, difficulty).equals(target)) {
+        while (!Target.meets(out, 0, target)) {
             nonce++;
-            hash = calculateHash();
+            hashHeader(nonce, prefix, out);
+            if ((++tried & (MiningStats.FLUSH_EVERY - 1)) == 0) stats.addHashes(MiningStats.FLUSH_EVERY);
         }
+        stats.addHashes(tried & (MiningStats.FLUSH_EVERY - 1));
+        stats.blockFound(tried, System.nanoTime() - start);
+        hash = Sha256.hex(out, 0);
         System.out.println("Block mined: " + hash);
     }
 
-    // Utility: SHA-256 hashing
-    public static String applySha256(String input){	
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");	        
-            byte[] hash = digest.digest(input.getBytes("UTF-8"));	        
-            StringBuilder hexString = new StringBuilder(); 
-
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-                if(hex.length() == 1) hexString.append('0');
-                hexString.append(hex);
-            }
+    // Parallel mining: worker w tries nonces w, w + workers, w + 2*workers, ...
+    // The first worker to hit the target flips `found` and the others bail out.
+    public void mine(int bits, ForkJoinPool pool) {
+        this.bits = bits;
+        byte[] target = Target.expand(bits);
+        int workers = pool.getParallelism();
+        byte[] prefix = headerPrefix(); // built once, shared read-only by the workers
+        AtomicBoolean found = new AtomicBoolean();
+        long startNanos = System.nanoTime();
+
+        List<ForkJoinTask<Long>> tasks = new ArrayList<>();
+        for (int w = 0; w < workers; w++) {
+            int start = w;
+            tasks.add(pool.submit(() -> search(start, workers, prefix, target, found)));
+        }
+        long tried = 0;
+        for (ForkJoinTask<Long> task : tasks) tried += task.join();
 
-            return hexString.toString();
-        } catch(Exception e) {
-            throw new RuntimeException(e);
+        if (!found.get()) throw new IllegalStateException("Nonce space exhausted");
+        stats.blockFound(tried, System.nanoTime() - startNanos);
+        System.out.println("Block mined: " + hash);
+    }
+
+    // Returns the number of nonces this worker tried
+    private long search(int start, int step, byte[] prefix, byte[] target, AtomicBoolean found) {
+        byte[] out = new byte[Sha256.LENGTH];
+        long tried = 0;
+        for (long n = start; n <= Integer.MAX_VALUE && !found.get(); n += step) {
+            hashHeader((int) n, prefix, out);
+            if ((++tried & (MiningStats.FLUSH_EVERY - 1)) == 0) stats.addHashes(MiningStats.FLUSH_EVERY);
+            if (Target.meets(out, 0, target) && found.compareAndSet(false, true)) {
+                nonce = (int) n;
+                hash = Sha256.hex(out, 0);
+                break;
+            }
         }
+        stats.addHashes(tried & (MiningStats.FLUSH_EVERY - 1));
+        return tried;
+    }
+
+    // Utility: SHA-256 hashing
+    public static String applySha256(String input){	
+        return Sha256.hex(input);
     }
 }
@@ -1,31 +1,283 @@
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 
 public class Blockchain {
-    public static ArrayList<Block> chain = new ArrayList<>();
-    public static int difficulty = 4;
+    public static ArrayList<Block> chain = new ValidatedChain();
+    // Proof of work: every block starts at initialBits, and every retargetInterval blocks the
+    // target is scaled so that blocks arrive about every targetBlockMillis. bits is the target
+    // for the next block.
+    public static int initialBits = Target.fromLeadingZeros(4);
+    public static int bits = initialBits;
+    public static int retargetInterval = 10;
+    public static long targetBlockMillis = 1_000;
+
+    // Mining engine: sequential by default, parallel splits the nonce space over miningThreads
+    public static boolean parallelMining = false;
+    public static int miningThreads = Runtime.getRuntime().availableProcessors();
+    private static ForkJoinPool miningPool;
+
+    // Watermark: blocks 0..validatedHeight of validatedChain are known to be valid,
+    // and validatedHash is the hash that sat at validatedHeight when it was checked
+    private static int validatedHeight = 0;
+    private static String validatedHash;
+    private static ArrayList<Block> validatedChain;
+
+    // Async mining: payloads wait in `pending` and one miner thread takes them in order
+    private static final LinkedBlockingQueue<PendingBlock> pending = new LinkedBlockingQueue<>();
+    private static final ExecutorService asyncMiner = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "block-miner");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Full audits of chains at least this long are split into segments on the common pool
+    public static int parallelAuditThreshold = 50_000;
 
     public static Block getLatestBlock() {
         return chain.get(chain.size() - 1);
     }
 
     public static void addBlock(Block newBlock) {
-        newBlock.mineBlock(difficulty);
-        chain.add(newBlock);
+        mine(newBlock);
+        synchronized (Blockchain.class) {
+            chain.add(newBlock);
+        }
+    }
+
+    private static void mine(Block block) {
+        int target = nextBits();
+        if (parallelMining) {
+            block.mine(target, miningPool());
+        } else {
+            block.mine(target);
+        }
+    }
+
+    // Bits for the block that would go on top of the current tip
+    public static synchronized int nextBits() {
+        int next = expectedBits(chain, chain.size());
+        if (next != bits && chain.size() > retargetInterval) {
+            System.out.println("Retarget at height " + chain.size() + ": bits " + Integer.toHexString(next));
+        }
+        bits = next;
+        return next;
+    }
+
+    // The bits the block at height must carry: initialBits up to the first retarget, then its
+    // parent's, scaled at each retarget height by how long the last retargetInterval blocks took
+    // versus the plan. Depends only on the blocks below height, so the audit can check any block
+    // against its parent without replaying the chain.
+    static int expectedBits(List<Block> blocks, int height) {
+        if (height <= 1) return initialBits;
+        int parent = blocks.get(height - 1).getBits();
+        if (height <= retargetInterval || height % retargetInterval != 0) return parent;
+        long actual = blocks.get(height - 1).getTimeStamp() - blocks.get(height - 1 - retargetInterval).getTimeStamp();
+        return Target.retarget(parent, actual, retargetInterval * targetBlockMillis);
+    }
+
+    // Queues data to be mined on the miner thread. Blocks are appended in submission order,
+    // each linked to the tip at the time it is mined; cancelling the future drops it from the queue.
+    public static CompletableFuture<Block> addBlockAsync(String data) {
+        PendingBlock p = new PendingBlock(data);
+        pending.add(p);
+        p.result.whenComplete((block, e) -> {
+            if (p.result.isCancelled()) pending.remove(p);
+        });
+        asyncMiner.execute(Blockchain::mineNext);
+        return p.result;
     }
 
+    public static List<CompletableFuture<Block>> addBlocksAsync(List<String> payloads) {
+        List<CompletableFuture<Block>> results = new ArrayList<>(payloads.size());
+        for (String data : payloads) results.add(addBlockAsync(data));
+        return results;
+    }
+
+    // Payloads queued and not yet picked up by the miner
+    public static int queueDepth() {
+        return pending.size();
+    }
+
+    // Cancels every payload still in the queue; a block already being mined still lands
+    public static int cancelQueued() {
+        int cancelled = 0;
+        for (PendingBlock p; (p = pending.poll()) != null; ) {
+            if (p.result.cancel(false)) cancelled++;
+        }
+        return cancelled;
+    }
+
+    private static void mineNext() {
+        PendingBlock p = pending.poll();
+        if (p == null || p.result.isDone()) return;
+        try {
+            while (true) {
+                String tip;
+                synchronized (Blockchain.class) {
+                    tip = chain.isEmpty() ? "0" : getLatestBlock().hash;
+                }
+                Block block = new Block(p.data, tip);
+                mine(block);
+                synchronized (Blockchain.class) {
+                    // a synchronous addBlock may have moved the tip meanwhile; mine again on top of it
+                    String current = chain.isEmpty() ? "0" : getLatestBlock().hash;
+                    if (current.equals(tip)) {
+                        chain.add(block);
+                        p.result.complete(block);
+                        return;
+                    }
+                }
+            }
+        } catch (Throwable e) {
+            p.result.completeExceptionally(e);
+        }
+    }
+
+    private static class PendingBlock {
+        final String data;
+        final CompletableFuture<Block> result = new CompletableFuture<>();
+        PendingBlock(String data) { this.data = data; }
+    }
+
+    private static synchronized ForkJoinPool miningPool() {
+        if (miningPool == null || miningPool.getParallelism() != miningThreads) {
+            if (miningPool != null) miningPool.shutdown();
+            miningPool = new ForkJoinPool(miningThreads);
+        }
+        return miningPool;
+    }
+
+    // Rechecks every block, so it also catches in-place edits of a Block's public fields
     public static boolean isChainValid() {
-        for (int i = 1; i < chain.size(); i++) {
-            Block current = chain.get(i);
-            Block previous = chain.get(i - 1);
+        return isChainValid(true);
+    }
+
+    // Routine checks (fullAudit false) only verify blocks above the watermark, so they miss
+    // in-place edits of hash or previousHash below it unless the editor called invalidateFrom;
+    // fullAudit rechecks every block
+    public static synchronized boolean isChainValid(boolean fullAudit) {
+        return (fullAudit ? audit() : check(watermark() + 1)) < 0;
+    }
+
+    // Full audit: returns the index of the first invalid block, or -1 if the chain is valid
+    public static synchronized int audit() {
+        if (chain.size() < parallelAuditThreshold) return check(1);
+
+        AtomicInteger firstBad = new AtomicInteger(Integer.MAX_VALUE);
+        ForkJoinPool.commonPool().invoke(new AuditTask(chain, 1, chain.size(), firstBad));
+        if (!linked(chain, 1)) firstBad.accumulateAndGet(1, Math::min);
 
-            if (!current.hash.equals(current.calculateHash())) {
-                return false;
+        int bad = firstBad.get() == Integer.MAX_VALUE ? -1 : firstBad.get();
+        setWatermark(bad < 0 ? chain.size() - 1 : bad - 1);
+        return bad;
+    }
+
+    private static int check(int from) {
+        for (int i = Math.max(from, 1); i < chain.size(); i++) {
+            if (!intact(chain, i) || !linked(chain, i)) {
+                setWatermark(i - 1);
+                return i;
             }
+        }
+        setWatermark(chain.size() - 1);
+        return -1;
+    }
+
+    // Hash matches the header, the block claims the target the schedule sets for its height
+    // (never 0, so unmined blocks fail) and the hash meets it
+    private static boolean intact(List<Block> blocks, int i) {
+        Block block = blocks.get(i);
+        return block.getBits() == expectedBits(blocks, i) && block.hash.equals(block.calculateHash()) && block.meetsTarget();
+    }
+
+    private static boolean linked(List<Block> blocks, int i) {
+        return blocks.get(i).previousHash.equals(blocks.get(i - 1).hash);
+    }
+
+    // Checks blocks [lo, hi) and the links inside that range; the link into lo
+    // belongs to whoever split the range, which stitches the two halves after they finish.
+    // Any failure lowers firstBad, and work above it is skipped.
+    @SuppressWarnings("serial") // never serialized
+    private static class AuditTask extends RecursiveAction {
+        static final int SEGMENT = 4096;
 
-            if (!current.previousHash.equals(previous.hash)) {
-                return false;
+        final List<Block> blocks;
+        final int lo, hi;
+        final AtomicInteger firstBad;
+
+        AuditTask(List<Block> blocks, int lo, int hi, AtomicInteger firstBad) {
+            this.blocks = blocks;
+            this.lo = lo;
+            this.hi = hi;
+            this.firstBad = firstBad;
+        }
+
+        @Override
+        protected void compute() {
+            if (lo >= firstBad.get()) return;
+            if (hi - lo <= SEGMENT) {
+                for (int i = lo; i < hi && i < firstBad.get(); i++) {
+                    if (!intact(blocks, i) || (i > lo && !linked(blocks, i))) {
+                        firstBad.accumulateAndGet(i, Math::min);
+                        return;
+                    }
+                }
+                return;
             }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new AuditTask(blocks, lo, mid, firstBad), new AuditTask(blocks, mid, hi, firstBad));
+            if (mid < firstBad.get() && !linked(blocks, mid)) firstBad.accumulateAndGet(mid, Math::min);
+        }
+    }
+
+    // Forgets validation of every block from height up. Mutations through chain call this
+    // themselves; callers that edit a Block's public fields in place must call it too.
+    public static synchronized void invalidateFrom(int height) {
+        if (height <= validatedHeight) setWatermark(Math.max(height - 1, 0));
+    }
+
+    private static int watermark() {
+        // A replaced chain, or a different block at the watermark, means start over
+        if (validatedChain != chain || validatedHeight >= chain.size()
+                || !chain.get(validatedHeight).hash.equals(validatedHash)) {
+            setWatermark(0);
         }
-        return true;
+        return validatedHeight;
+    }
+
+    private static void setWatermark(int height) {
+        validatedChain = chain;
+        validatedHeight = chain.isEmpty() ? 0 : height;
+        validatedHash = chain.isEmpty() ? null : chain.get(validatedHeight).hash;
+    }
+
+    // Chain list that pulls the watermark down when anything at or below it changes.
+    // Appends leave it alone; subList views can write through, so handing one out counts.
+    @SuppressWarnings("serial") // never serialized
+    private static class ValidatedChain extends ArrayList<Block> {
+        @Override public Block set(int index, Block block) { invalidateFrom(index); return super.set(index, block); }
+        @Override public void add(int index, Block block) { invalidateFrom(index); super.add(index, block); }
+        @Override public boolean addAll(int index, Collection<? extends Block> blocks) { invalidateFrom(index); return super.addAll(index, blocks); }
+        @Override public Block remove(int index) { invalidateFrom(index); return super.remove(index); }
+        @Override public boolean remove(Object block) { int i = indexOf(block); if (i >= 0) invalidateFrom(i); return super.remove(block); }
+        @Override protected void removeRange(int from, int to) { invalidateFrom(from); super.removeRange(from, to); }
+        @Override public boolean removeAll(Collection<?> blocks) { invalidateFrom(0); return super.removeAll(blocks); }
+        @Override public boolean retainAll(Collection<?> blocks) { invalidateFrom(0); return super.retainAll(blocks); }
+        @Override public boolean removeIf(Predicate<? super Block> filter) { invalidateFrom(0); return super.removeIf(filter); }
+        @Override public void replaceAll(UnaryOperator<Block> op) { invalidateFrom(0); super.replaceAll(op); }
+        @Override public void sort(Comparator<? super Block> c) { invalidateFrom(0); super.sort(c); }
+        @Override public void clear() { invalidateFrom(0); super.clear(); }
+        @Override public List<Block> subList(int from, int to) { invalidateFrom(from); return super.subList(from, to); }
     }
 }
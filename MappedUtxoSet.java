@@ -0,0 +1,431 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// UTXO set kept in a memory-mapped file, so it survives restarts and costs the heap only the
+// changes of the block being applied. The file is an open-addressing hash table of fixed
+// 64-byte records, probed like OutpointMap but with tombstones:
+//
+//   header  [magic][version][capacity][size][dead][tipLen|tip]       128 bytes
+//   record  [hi][lo][index][amount][state][ownerLen][owner, <= 38 B]  64 bytes each
+//
+// Changes are buffered until commit(tip). A commit first writes them to a redo journal and
+// forces it, then applies them to the table, forces that, stores the tip and deletes the
+// journal. A remove only marks its record dead and a put writes one record, so records never
+// move and every op touches a single slot; records are sector-aligned, so a crash leaves each
+// slot either before or after its op. Slots never go back to empty, so a key is never stored
+// twice, and replaying puts and removes in order is idempotent from any such mix: open()
+// finishes whatever commit a crash interrupted. A torn journal was never applied and is
+// discarded. Dead slots are dropped when the table is rehashed.
+// Not thread-safe; Node guards it with its monitor.
+public final class MappedUtxoSet implements SimpleNetworkSim.UtxoSet {
+    static final int RECORD = 64, MAX_OWNER = 38;
+    private static final int HEADER = 128, MAX_TIP = HEADER - 36;
+    private static final int MAGIC = 0x5554584F, VERSION = 2; // "UTXO"
+    private static final byte EMPTY = 0, LIVE = 1, DEAD = 2;  // record state
+    private static final int SEGMENT_SHIFT = 24; // 2^24 records, 1 GiB, per mapping
+    private static final long INITIAL_CAPACITY = 1 << 16;
+    private static final Object REMOVED = new Object();
+
+    private final Path table, journal;
+    private FileChannel channel;
+    private MappedByteBuffer header;
+    private MappedByteBuffer[] segments;
+    private long capacity, mask, stored; // slots, capacity - 1, live records in the table
+    private long dead;                   // tombstones in the table
+    private long size;                   // stored plus the effect of pending changes
+    private String tip;
+
+    // Changes since the last commit in order, and the latest one per outpoint for reads
+    private final List<Op> pending = new ArrayList<>();
+    private final OutpointMap<Object> overlay = new OutpointMap<>();
+
+    private MappedUtxoSet(Path dir) {
+        table = dir.resolve("utxo.table");
+        journal = dir.resolve("utxo.journal");
+    }
+
+    // Opens the set stored in dir, creating it if needed and finishing an interrupted commit
+    public static MappedUtxoSet open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        MappedUtxoSet set = new MappedUtxoSet(dir);
+        if (Files.exists(set.table)) {
+            set.map(set.table);
+        } else {
+            set.create(set.table, INITIAL_CAPACITY);
+            set.map(set.table);
+        }
+        set.recover();
+        set.size = set.stored;
+        return set;
+    }
+
+    public SimpleNetworkSim.TXOut get(String txId, int index) {
+        long hi = OutpointMap.packHi(txId), lo = OutpointMap.packLo(txId);
+        Object o = overlay.get(hi, lo, index);
+        if (o != null) return o == REMOVED ? null : (SimpleNetworkSim.TXOut) o;
+        long slot = find(hi, lo, index);
+        return slot < 0 ? null : read(slot);
+    }
+
+    public boolean contains(String txId, int index) {
+        long hi = OutpointMap.packHi(txId), lo = OutpointMap.packLo(txId);
+        Object o = overlay.get(hi, lo, index);
+        if (o != null) return o != REMOVED;
+        return find(hi, lo, index) >= 0;
+    }
+
+    public void put(String txId, int index, SimpleNetworkSim.TXOut out) {
+        byte[] owner = out.owner.getBytes(StandardCharsets.UTF_8);
+        if (owner.length > MAX_OWNER) throw new IllegalArgumentException("owner longer than " + MAX_OWNER + " bytes: " + out.owner);
+        if (!contains(txId, index)) size++;
+        long hi = OutpointMap.packHi(txId), lo = OutpointMap.packLo(txId);
+        SimpleNetworkSim.TXOut copy = new SimpleNetworkSim.TXOut();
+        copy.owner = out.owner;
+        copy.amount = out.amount;
+        pending.add(new Op(hi, lo, index, copy.amount, owner));
+        overlay.put(hi, lo, index, copy);
+    }
+
+    public SimpleNetworkSim.TXOut remove(String txId, int index) {
+        SimpleNetworkSim.TXOut old = get(txId, index);
+        if (old == null) return null;
+        long hi = OutpointMap.packHi(txId), lo = OutpointMap.packLo(txId);
+        pending.add(new Op(hi, lo, index, 0, null));
+        overlay.put(hi, lo, index, REMOVED);
+        size--;
+        return old;
+    }
+
+    public int size() {
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    public List<String> keys() {
+        List<String> out = new ArrayList<>();
+        for (long slot = 0; slot < capacity; slot++) {
+            ByteBuffer seg = segment(slot);
+            int off = offset(slot);
+            if (seg.get(off + 24) != LIVE) continue;
+            long hi = seg.getLong(off), lo = seg.getLong(off + 8);
+            int index = seg.getInt(off + 16);
+            if (overlay.get(hi, lo, index) == null) out.add(OutpointMap.idOf(hi, lo) + ":" + index);
+        }
+        overlay.forEach((hi, lo, index, v) -> {
+            if (v != REMOVED) out.add(OutpointMap.idOf(hi, lo) + ":" + index);
+        });
+        return out;
+    }
+
+    public String tip() {
+        return tip;
+    }
+
+    public void commit(String tipHash) {
+        try {
+            writeJournal(tipBytes(tipHash));
+            apply(pending);
+            finish(tipHash);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        pending.clear();
+        overlay.clear();
+        size = stored;
+    }
+
+    // Only the first step of commit(): leaves the journal behind as a crash right after it
+    // would, for tests of recovery
+    void writeJournal(String tipHash) throws IOException {
+        writeJournal(tipBytes(tipHash));
+    }
+
+    // Empties the set, committed state and tip included: a fresh table replaces the file with
+    // an atomic rename, as in rehash(), so a crash leaves the old set or the empty one
+    public void clear() {
+        pending.clear();
+        overlay.clear();
+        try {
+            Files.deleteIfExists(journal);
+            Path next = table.resolveSibling(table.getFileName() + ".grow");
+            Files.deleteIfExists(next);
+            create(next, INITIAL_CAPACITY);
+            channel.close();
+            Files.move(next, table, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            map(table);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        size = stored;
+    }
+
+    // Drops uncommitted changes and unmaps the file
+    public void close() {
+        pending.clear();
+        overlay.clear();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public String toString() {
+        return "MappedUtxoSet(" + table + ", " + size + " outputs, tip " + tip + ")";
+    }
+
+    // ---- Commit and recovery ----
+
+    private static final class Op {
+        final long hi, lo;
+        final int index, amount;
+        final byte[] owner; // null for a remove
+
+        Op(long hi, long lo, int index, int amount, byte[] owner) {
+            this.hi = hi;
+            this.lo = lo;
+            this.index = index;
+            this.amount = amount;
+            this.owner = owner;
+        }
+    }
+
+    private static byte[] tipBytes(String tipHash) {
+        byte[] tipBytes = tipHash.getBytes(StandardCharsets.UTF_8);
+        if (tipBytes.length > MAX_TIP) throw new IllegalArgumentException("tip hash too long: " + tipHash);
+        return tipBytes;
+    }
+
+    // [magic][count][tipLen|tip] then per op [kind][hi][lo][index] (+ [amount][ownerLen|owner]
+    // for a put), then a CRC32 of everything before it
+    private void writeJournal(byte[] tipBytes) throws IOException {
+        int bytes = 4 + 4 + 2 + tipBytes.length + 8;
+        for (Op op : pending) bytes += 1 + 8 + 8 + 4 + (op.owner == null ? 0 : 4 + 1 + op.owner.length);
+        ByteBuffer buf = ByteBuffer.allocate(bytes);
+        buf.putInt(MAGIC).putInt(pending.size()).putShort((short) tipBytes.length).put(tipBytes);
+        for (Op op : pending) {
+            buf.put((byte) (op.owner == null ? 0 : 1)).putLong(op.hi).putLong(op.lo).putInt(op.index);
+            if (op.owner != null) buf.putInt(op.amount).put((byte) op.owner.length).put(op.owner);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putLong(crc.getValue()).flip();
+        try (FileChannel out = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) out.write(buf);
+            out.force(true);
+        }
+    }
+
+    private void apply(List<Op> ops) throws IOException {
+        for (Op op : ops) {
+            if (op.owner == null) {
+                long slot = find(op.hi, op.lo, op.index);
+                if (slot >= 0) {
+                    segment(slot).put(offset(slot) + 24, DEAD);
+                    stored--;
+                    dead++;
+                }
+            } else {
+                long slot = find(op.hi, op.lo, op.index);
+                if (slot < 0) {
+                    if (stored + dead + 1 > capacity / 4 * 3) rehash();
+                    slot = freeSlot(op.hi, op.lo, op.index);
+                    if (segment(slot).get(offset(slot) + 24) == DEAD) dead--;
+                    stored++;
+                }
+                write(slot, op);
+            }
+        }
+    }
+
+    private void finish(String tipHash) throws IOException {
+        for (MappedByteBuffer seg : segments) seg.force();
+        tip = tipHash;
+        writeHeader(header, capacity, stored, dead, tip);
+        header.force();
+        Files.deleteIfExists(journal);
+    }
+
+    // A complete journal is replayed; a torn one never reached the table and is dropped
+    private void recover() throws IOException {
+        if (!Files.exists(journal)) return;
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(journal));
+        List<Op> ops = new ArrayList<>();
+        String journalTip = null;
+        try {
+            CRC32 crc = new CRC32();
+            crc.update(buf.array(), 0, buf.limit() - 8);
+            if (buf.getLong(buf.limit() - 8) == crc.getValue() && buf.getInt() == MAGIC) {
+                int count = buf.getInt();
+                byte[] tipBytes = new byte[buf.getShort()];
+                buf.get(tipBytes);
+                journalTip = new String(tipBytes, StandardCharsets.UTF_8);
+                for (int i = 0; i < count; i++) {
+                    boolean put = buf.get() == 1;
+                    long hi = buf.getLong(), lo = buf.getLong();
+                    int index = buf.getInt();
+                    if (!put) {
+                        ops.add(new Op(hi, lo, index, 0, null));
+                        continue;
+                    }
+                    int amount = buf.getInt();
+                    byte[] owner = new byte[buf.get()];
+                    buf.get(owner);
+                    ops.add(new Op(hi, lo, index, amount, owner));
+                }
+            }
+        } catch (RuntimeException torn) {
+            journalTip = null; // shorter than its own header
+        }
+        if (journalTip != null) {
+            count(); // the header's counts predate the partial apply
+            apply(ops);
+            finish(journalTip);
+        } else {
+            Files.delete(journal);
+        }
+    }
+
+    // ---- Table ----
+
+    private long home(long hi, long lo, int index) {
+        return (OutpointMap.hash(hi, lo, index) & 0xFFFFFFFFL) & mask;
+    }
+
+    // Probes past dead records; the load limit on live plus dead keeps an empty slot to stop at
+    private long find(long hi, long lo, int index) {
+        for (long i = home(hi, lo, index); ; i = (i + 1) & mask) {
+            ByteBuffer seg = segment(i);
+            int off = offset(i);
+            byte state = seg.get(off + 24);
+            if (state == EMPTY) return -1;
+            if (state == LIVE && seg.getLong(off) == hi && seg.getLong(off + 8) == lo && seg.getInt(off + 16) == index) return i;
+        }
+    }
+
+    // First empty or dead slot on the key's probe run; callers check find() first
+    private long freeSlot(long hi, long lo, int index) {
+        long i = home(hi, lo, index);
+        while (segment(i).get(offset(i) + 24) == LIVE) i = (i + 1) & mask;
+        return i;
+    }
+
+    private SimpleNetworkSim.TXOut read(long slot) {
+        ByteBuffer seg = segment(slot);
+        int off = offset(slot);
+        byte[] owner = new byte[seg.get(off + 25)];
+        seg.get(off + 26, owner);
+        SimpleNetworkSim.TXOut out = new SimpleNetworkSim.TXOut();
+        out.owner = new String(owner, StandardCharsets.UTF_8);
+        out.amount = seg.getInt(off + 20);
+        return out;
+    }
+
+    private void write(long slot, Op op) {
+        ByteBuffer seg = segment(slot);
+        int off = offset(slot);
+        seg.putLong(off, op.hi).putLong(off + 8, op.lo).putInt(off + 16, op.index).putInt(off + 20, op.amount);
+        seg.put(off + 25, (byte) op.owner.length).put(off + 26, op.owner);
+        seg.put(off + 24, LIVE);
+    }
+
+    // Sets stored and dead from the records themselves
+    private void count() {
+        stored = dead = 0;
+        for (long slot = 0; slot < capacity; slot++) {
+            byte state = segment(slot).get(offset(slot) + 24);
+            if (state == LIVE) stored++;
+            else if (state == DEAD) dead++;
+        }
+    }
+
+    // Rehashes the live records into a new file, twice the size if they fill half the table
+    // and otherwise the same size to drop the tombstones, and swaps it in with an atomic
+    // rename, so a crash leaves either the old table or the new one; the journal covers the rest
+    private void rehash() throws IOException {
+        Path next = table.resolveSibling(table.getFileName() + ".grow");
+        Files.deleteIfExists(next);
+        MappedUtxoSet fresh = new MappedUtxoSet(table.getParent());
+        fresh.create(next, stored + 1 > capacity / 2 ? capacity * 2 : capacity);
+        fresh.map(next);
+        for (long slot = 0; slot < capacity; slot++) {
+            ByteBuffer seg = segment(slot);
+            int off = offset(slot);
+            if (seg.get(off + 24) != LIVE) continue;
+            long to = fresh.freeSlot(seg.getLong(off), seg.getLong(off + 8), seg.getInt(off + 16));
+            ByteBuffer toSeg = fresh.segment(to);
+            int toOff = fresh.offset(to);
+            for (int k = 0; k < RECORD; k += 8) toSeg.putLong(toOff + k, seg.getLong(off + k));
+        }
+        for (MappedByteBuffer seg : fresh.segments) seg.force();
+        writeHeader(fresh.header, fresh.capacity, stored, 0, tip);
+        fresh.header.force();
+        fresh.channel.close();
+        channel.close();
+        Files.move(next, table, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        map(table);
+    }
+
+    private void create(Path file, long slots) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedByteBuffer h = ch.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+            writeHeader(h, slots, 0, 0, null);
+            h.force();
+            ch.write(ByteBuffer.wrap(new byte[1]), HEADER + slots * RECORD - 1); // sparse until used
+        }
+    }
+
+    private void map(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) throw new IOException(file + " is not a UTXO table");
+        capacity = header.getLong(8);
+        mask = capacity - 1;
+        stored = header.getLong(16);
+        dead = header.getLong(24);
+        int tipLen = header.getInt(32);
+        if (tipLen >= 0) {
+            byte[] t = new byte[tipLen];
+            header.get(36, t);
+            tip = new String(t, StandardCharsets.UTF_8);
+        } else {
+            tip = null;
+        }
+        long segmentSlots = 1L << SEGMENT_SHIFT;
+        segments = new MappedByteBuffer[(int) ((capacity + segmentSlots - 1) >>> SEGMENT_SHIFT)];
+        for (int i = 0; i < segments.length; i++) {
+            long slots = Math.min(segmentSlots, capacity - i * segmentSlots);
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER + i * segmentSlots * RECORD, slots * RECORD);
+        }
+    }
+
+    private static void writeHeader(ByteBuffer h, long capacity, long size, long dead, String tip) {
+        h.putInt(0, MAGIC).putInt(4, VERSION).putLong(8, capacity).putLong(16, size).putLong(24, dead);
+        if (tip == null) {
+            h.putInt(32, -1);
+        } else {
+            byte[] t = tip.getBytes(StandardCharsets.UTF_8);
+            h.putInt(32, t.length).put(36, t);
+        }
+    }
+
+    private ByteBuffer segment(long slot) {
+        return segments[(int) (slot >>> SEGMENT_SHIFT)];
+    }
+
+    private int offset(long slot) {
+        return (int) (slot & ((1L << SEGMENT_SHIFT) - 1)) * RECORD;
+    }
+}
@@ -0,0 +1,107 @@
+import java.io.PrintStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Mining telemetry: hash and block counters plus histograms of nonces per block, time to
+// block and per-block hashrate. Miners count in a local variable and flush in batches, so
+// the nonce loop never touches shared state.
+public final class MiningStats {
+    public static final MiningStats GLOBAL = new MiningStats();
+
+    // How many nonces a miner tries between flushes to the shared counters
+    public static final int FLUSH_EVERY = 1 << 16;
+
+    private final long startNanos = System.nanoTime();
+    private final LongAdder hashes = new LongAdder();
+    private final LongAdder blocks = new LongAdder();
+    private final LongAdder staleBlocks = new LongAdder();
+    private final LongAdder abandonedTemplates = new LongAdder();
+    private final LongAdder abandonedHashes = new LongAdder();
+    private final Histogram noncesPerBlock = new Histogram();
+    private final Histogram millisPerBlock = new Histogram();
+    private final Histogram hashesPerSecond = new Histogram();
+
+    public void addHashes(long n) {
+        hashes.add(n);
+    }
+
+    // A block was found after `nonces` tries over `nanos`
+    public void blockFound(long nonces, long nanos) {
+        blocks.increment();
+        noncesPerBlock.record(nonces);
+        millisPerBlock.record(TimeUnit.NANOSECONDS.toMillis(nanos));
+        hashesPerSecond.record(nanos == 0 ? nonces : nonces * 1_000_000_000L / nanos);
+    }
+
+    // A found block that the network did not take (the tip moved first)
+    public void blockStale() {
+        staleBlocks.increment();
+    }
+
+    // A template given up before it was solved, e.g. because a new tip arrived or mining stopped
+    public void workAbandoned(long nonces) {
+        abandonedTemplates.increment();
+        abandonedHashes.add(nonces);
+    }
+
+    public Histogram noncesPerBlock() { return noncesPerBlock; }
+    public Histogram millisPerBlock() { return millisPerBlock; }
+    public Histogram hashesPerSecond() { return hashesPerSecond; }
+
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    // Prints a snapshot every periodMillis on a daemon thread, with the hashrate over that
+    // interval; cancel the returned future to stop
+    public ScheduledFuture<?> startReporting(long periodMillis, PrintStream out) {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "mining-stats");
+            t.setDaemon(true);
+            return t;
+        });
+        Snapshot[] last = { snapshot() };
+        return timer.scheduleAtFixedRate(() -> {
+            Snapshot now = snapshot();
+            out.printf("[stats] %.0f H/s (interval) | %s%n", now.hashRateSince(last[0]), now);
+            last[0] = now;
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static final class Snapshot {
+        public final long nanos, hashes, blocks, staleBlocks, abandonedTemplates, abandonedHashes;
+        public final String noncesPerBlock, millisPerBlock, hashesPerSecond;
+
+        private Snapshot(MiningStats s) {
+            nanos = System.nanoTime() - s.startNanos;
+            hashes = s.hashes.sum();
+            blocks = s.blocks.sum();
+            staleBlocks = s.staleBlocks.sum();
+            abandonedTemplates = s.abandonedTemplates.sum();
+            abandonedHashes = s.abandonedHashes.sum();
+            noncesPerBlock = s.noncesPerBlock.summary();
+            millisPerBlock = s.millisPerBlock.summary();
+            hashesPerSecond = s.hashesPerSecond.summary();
+        }
+
+        // Average hashrate since the stats were created
+        public double hashRate() {
+            return nanos == 0 ? 0 : hashes * 1e9 / nanos;
+        }
+
+        public double hashRateSince(Snapshot earlier) {
+            long dt = nanos - earlier.nanos;
+            return dt <= 0 ? 0 : (hashes - earlier.hashes) * 1e9 / dt;
+        }
+
+        public String toString() {
+            return String.format("hashes=%d (%.0f H/s avg) blocks=%d stale=%d abandoned=%d (%d hashes)"
+                            + " | nonces/block: %s | ms/block: %s | H/s per block: %s",
+                    hashes, hashRate(), blocks, staleBlocks, abandonedTemplates, abandonedHashes,
+                    noncesPerBlock, millisPerBlock, hashesPerSecond);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Open-addressing map from an outpoint (txid, output index) to a value, with no per-entry
+// objects: keys live in primitive arrays and lookups by String txid allocate nothing.
+//
+// A txid is packed into two longs. ASCII ids of up to 15 chars (every id the simulation
+// makes) are stored verbatim with their length in the last byte, so keys() can give the
+// id back; longer ids use the first 15 bytes of their SHA-256 and a 0xFF length marker.
+//
+// Linear probing with backward-shift deletion, so there are no tombstones. Not thread-safe
+// for writes; concurrent readers are fine while nobody writes.
+public final class OutpointMap<V> {
+    private static final int HASHED = 0xFF;
+
+    private long[] his, los;
+    private int[] indexes;
+    private Object[] values; // null marks an empty slot
+    private int size, mask;
+
+    public OutpointMap() {
+        this(16);
+    }
+
+    public OutpointMap(int expected) {
+        int cap = Integer.highestOneBit(Math.max(16, expected * 4 / 3) - 1) << 1;
+        allocate(cap);
+    }
+
+    public interface Visitor<V> {
+        void visit(long hi, long lo, int index, V value);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(String txId, int index) {
+        return get(txId, index) != null;
+    }
+
+    public V get(String txId, int index) {
+        return get(packHi(txId), packLo(txId), index);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long hi, long lo, int index) {
+        int slot = find(hi, lo, index);
+        return slot < 0 ? null : (V) values[slot];
+    }
+
+    public V put(String txId, int index, V value) {
+        return put(packHi(txId), packLo(txId), index, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(long hi, long lo, int index, V value) {
+        if (value == null) throw new IllegalArgumentException("null value");
+        int slot = find(hi, lo, index);
+        if (slot >= 0) {
+            V old = (V) values[slot];
+            values[slot] = value;
+            return old;
+        }
+        if (size + 1 > (mask + 1) * 3 / 4) grow();
+        insert(hi, lo, index, value);
+        size++;
+        return null;
+    }
+
+    public V remove(String txId, int index) {
+        return remove(packHi(txId), packLo(txId), index);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(long hi, long lo, int index) {
+        int slot = find(hi, lo, index);
+        if (slot < 0) return null;
+        V old = (V) values[slot];
+        deleteAt(slot);
+        size--;
+        return old;
+    }
+
+    public void clear() {
+        allocate(16);
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(Visitor<? super V> visitor) {
+        for (int i = 0; i <= mask; i++) {
+            if (values[i] != null) visitor.visit(his[i], los[i], indexes[i], (V) values[i]);
+        }
+    }
+
+    // "txid:index" for every entry, for printing
+    public List<String> keys() {
+        List<String> out = new ArrayList<>(size);
+        forEach((hi, lo, index, v) -> out.add(idOf(hi, lo) + ":" + index));
+        return out;
+    }
+
+    public String toString() {
+        return keys().toString();
+    }
+
+    // ---- Key packing ----
+
+    public static long packHi(String txId) {
+        if (!packable(txId)) return hashedHi(txId);
+        long hi = 0;
+        for (int i = 0; i < 8; i++) hi = (hi << 8) | (i < txId.length() ? txId.charAt(i) : 0);
+        return hi;
+    }
+
+    public static long packLo(String txId) {
+        if (!packable(txId)) return hashedLo(txId);
+        long lo = 0;
+        for (int i = 8; i < 15; i++) lo = (lo << 8) | (i < txId.length() ? txId.charAt(i) : 0);
+        return (lo << 8) | txId.length();
+    }
+
+    // The txid a packed key came from, or "#<hex>" for a hashed one
+    public static String idOf(long hi, long lo) {
+        int len = (int) (lo & 0xFF);
+        if (len == HASHED) return "#" + Long.toHexString(hi) + Long.toHexString(lo >>> 8);
+        char[] id = new char[len];
+        for (int i = 0; i < len; i++) id[i] = (char) ((i < 8 ? hi >>> (56 - 8 * i) : lo >>> (56 - 8 * (i - 8))) & 0xFF);
+        return new String(id);
+    }
+
+    private static boolean packable(String txId) {
+        if (txId.length() > 15) return false;
+        for (int i = 0; i < txId.length(); i++) {
+            char c = txId.charAt(i);
+            if (c == 0 || c >= 0x80) return false;
+        }
+        return true;
+    }
+
+    private static final ThreadLocal<byte[]> DIGEST = ThreadLocal.withInitial(() -> new byte[Sha256.LENGTH]);
+
+    private static long hashedHi(String txId) {
+        byte[] h = DIGEST.get();
+        Sha256.hash(txId, h, 0);
+        return readLong(h, 0);
+    }
+
+    private static long hashedLo(String txId) {
+        byte[] h = DIGEST.get();
+        Sha256.hash(txId, h, 0);
+        return (readLong(h, 8) & ~0xFFL) | HASHED;
+    }
+
+    private static long readLong(byte[] b, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) v = (v << 8) | (b[off + i] & 0xFF);
+        return v;
+    }
+
+    // ---- Table ----
+
+    // Also the slot hash of MappedUtxoSet's on-disk table
+    static int hash(long hi, long lo, int index) {
+        long h = hi * 0x9E3779B97F4A7C15L ^ lo * 0xC2B2AE3D27D4EB4FL ^ index * 0x165667B19E3779F9L;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private int find(long hi, long lo, int index) {
+        for (int i = hash(hi, lo, index) & mask; values[i] != null; i = (i + 1) & mask) {
+            if (his[i] == hi && los[i] == lo && indexes[i] == index) return i;
+        }
+        return -1;
+    }
+
+    private void insert(long hi, long lo, int index, Object value) {
+        int i = hash(hi, lo, index) & mask;
+        while (values[i] != null) i = (i + 1) & mask;
+        his[i] = hi;
+        los[i] = lo;
+        indexes[i] = index;
+        values[i] = value;
+    }
+
+    // Empties slot and shifts later entries of the probe run back so lookups never stop early
+    private void deleteAt(int slot) {
+        values[slot] = null;
+        for (int j = (slot + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+            int home = hash(his[j], los[j], indexes[j]) & mask;
+            boolean stays = slot <= j ? (slot < home && home <= j) : (slot < home || home <= j);
+            if (stays) continue;
+            his[slot] = his[j];
+            los[slot] = los[j];
+            indexes[slot] = indexes[j];
+            values[slot] = values[j];
+            values[j] = null;
+            slot = j;
+        }
+    }
+
+    private void grow() {
+        long[] oldHis = his, oldLos = los;
+        int[] oldIndexes = indexes;
+        Object[] oldValues = values;
+        allocate(values.length * 2);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) insert(oldHis[i], oldLos[i], oldIndexes[i], oldValues[i]);
+        }
+    }
+
+    private void allocate(int cap) {
+        his = new long[cap];
+        los = new long[cap];
+        indexes = new int[cap];
+        values = new Object[cap];
+        mask = cap - 1;
+    }
+}
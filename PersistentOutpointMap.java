@@ -0,0 +1,243 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Immutable map from an outpoint (txid, output index) to a value: a hash array mapped trie
+// (HAMT) with path copying. with/without return a new map that shares every untouched node
+// with the old one, so copies are free and n maps that differ by d changes cost about
+// one map plus d * log32(size) small nodes. Keys are packed as in OutpointMap; values must
+// be non-null. Safe to read from any thread.
+public final class PersistentOutpointMap<V> {
+    private static final PersistentOutpointMap<?> EMPTY = new PersistentOutpointMap<>(null, 0);
+
+    // A trie node is null, a Leaf, a Branch, or a Collision once all 32 hash bits are used up
+    private final Object root;
+    private final int size;
+
+    private PersistentOutpointMap(Object root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> PersistentOutpointMap<V> empty() {
+        return (PersistentOutpointMap<V>) EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(String txId, int index) {
+        return get(txId, index) != null;
+    }
+
+    public V get(String txId, int index) {
+        return get(OutpointMap.packHi(txId), OutpointMap.packLo(txId), index);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long hi, long lo, int index) {
+        int hash = OutpointMap.hash(hi, lo, index);
+        Object n = root;
+        for (int shift = 0; ; shift += 5) {
+            if (n instanceof Leaf) {
+                Leaf leaf = (Leaf) n;
+                return leaf.is(hi, lo, index) ? (V) leaf.value : null;
+            }
+            if (n instanceof Branch) {
+                Branch b = (Branch) n;
+                int bit = bit(hash, shift);
+                if ((b.bitmap & bit) == 0) return null;
+                n = b.slots[b.slot(bit)];
+                continue;
+            }
+            if (n instanceof Collision) {
+                for (Leaf leaf : ((Collision) n).leaves) {
+                    if (leaf.is(hi, lo, index)) return (V) leaf.value;
+                }
+            }
+            return null;
+        }
+    }
+
+    public PersistentOutpointMap<V> with(String txId, int index, V value) {
+        return with(OutpointMap.packHi(txId), OutpointMap.packLo(txId), index, value);
+    }
+
+    public PersistentOutpointMap<V> with(long hi, long lo, int index, V value) {
+        if (value == null) throw new IllegalArgumentException("null value");
+        V old = get(hi, lo, index);
+        if (old == value) return this;
+        Leaf leaf = new Leaf(hi, lo, index, value);
+        return new PersistentOutpointMap<>(put(root, leaf, leaf.hash(), 0), old == null ? size + 1 : size);
+    }
+
+    public PersistentOutpointMap<V> without(String txId, int index) {
+        return without(OutpointMap.packHi(txId), OutpointMap.packLo(txId), index);
+    }
+
+    public PersistentOutpointMap<V> without(long hi, long lo, int index) {
+        if (get(hi, lo, index) == null) return this;
+        return new PersistentOutpointMap<>(remove(root, hi, lo, index, OutpointMap.hash(hi, lo, index), 0), size - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(OutpointMap.Visitor<? super V> visitor) {
+        forEach(root, (OutpointMap.Visitor<Object>) visitor);
+    }
+
+    // "txid:index" for every entry, for printing
+    public List<String> keys() {
+        List<String> out = new ArrayList<>(size);
+        forEach((hi, lo, index, v) -> out.add(OutpointMap.idOf(hi, lo) + ":" + index));
+        return out;
+    }
+
+    public String toString() {
+        return keys().toString();
+    }
+
+    // ---- Trie ----
+
+    private static final class Leaf {
+        final long hi, lo;
+        final int index;
+        final Object value;
+
+        Leaf(long hi, long lo, int index, Object value) {
+            this.hi = hi;
+            this.lo = lo;
+            this.index = index;
+            this.value = value;
+        }
+
+        boolean is(long hi, long lo, int index) {
+            return this.hi == hi && this.lo == lo && this.index == index;
+        }
+
+        boolean sameKey(Leaf o) {
+            return is(o.hi, o.lo, o.index);
+        }
+
+        int hash() {
+            return OutpointMap.hash(hi, lo, index);
+        }
+    }
+
+    // Children for the 5-bit hash chunks set in bitmap, packed in chunk order
+    private static final class Branch {
+        final int bitmap;
+        final Object[] slots;
+
+        Branch(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        int slot(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+    }
+
+    // Leaves whose 32-bit hashes are equal
+    private static final class Collision {
+        final Leaf[] leaves;
+
+        Collision(Leaf[] leaves) {
+            this.leaves = leaves;
+        }
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & 31);
+    }
+
+    private static Object put(Object n, Leaf leaf, int hash, int shift) {
+        if (n == null) return leaf;
+        if (n instanceof Leaf) {
+            Leaf old = (Leaf) n;
+            return old.sameKey(leaf) ? leaf : merge(old, old.hash(), leaf, hash, shift);
+        }
+        if (n instanceof Branch) {
+            Branch b = (Branch) n;
+            int bit = bit(hash, shift), i = b.slot(bit);
+            if ((b.bitmap & bit) == 0) {
+                Object[] slots = new Object[b.slots.length + 1];
+                System.arraycopy(b.slots, 0, slots, 0, i);
+                slots[i] = leaf;
+                System.arraycopy(b.slots, i, slots, i + 1, b.slots.length - i);
+                return new Branch(b.bitmap | bit, slots);
+            }
+            Object[] slots = b.slots.clone();
+            slots[i] = put(b.slots[i], leaf, hash, shift + 5);
+            return new Branch(b.bitmap, slots);
+        }
+        Leaf[] leaves = ((Collision) n).leaves;
+        for (int i = 0; i < leaves.length; i++) {
+            if (leaves[i].sameKey(leaf)) {
+                Leaf[] copy = leaves.clone();
+                copy[i] = leaf;
+                return new Collision(copy);
+            }
+        }
+        Leaf[] copy = Arrays.copyOf(leaves, leaves.length + 1);
+        copy[leaves.length] = leaf;
+        return new Collision(copy);
+    }
+
+    // Smallest subtrie holding two leaves with different keys
+    private static Object merge(Leaf a, int ha, Leaf b, int hb, int shift) {
+        if (shift >= 32) return new Collision(new Leaf[] { a, b });
+        int ba = bit(ha, shift), bb = bit(hb, shift);
+        if (ba == bb) return new Branch(ba, new Object[] { merge(a, ha, b, hb, shift + 5) });
+        return new Branch(ba | bb, Integer.compareUnsigned(ba, bb) < 0 ? new Object[] { a, b } : new Object[] { b, a });
+    }
+
+    // A branch left with a single leaf collapses into that leaf, so paths stay short
+    private static Object remove(Object n, long hi, long lo, int index, int hash, int shift) {
+        if (n instanceof Leaf) return ((Leaf) n).is(hi, lo, index) ? null : n;
+        if (n instanceof Branch) {
+            Branch b = (Branch) n;
+            int bit = bit(hash, shift), i = b.slot(bit);
+            if ((b.bitmap & bit) == 0) return n;
+            Object child = remove(b.slots[i], hi, lo, index, hash, shift + 5);
+            if (child == b.slots[i]) return n;
+            if (child == null) {
+                if (b.slots.length == 1) return null;
+                if (b.slots.length == 2 && b.slots[1 - i] instanceof Leaf) return b.slots[1 - i];
+                Object[] slots = new Object[b.slots.length - 1];
+                System.arraycopy(b.slots, 0, slots, 0, i);
+                System.arraycopy(b.slots, i + 1, slots, i, slots.length - i);
+                return new Branch(b.bitmap & ~bit, slots);
+            }
+            if (b.slots.length == 1 && child instanceof Leaf) return child;
+            Object[] slots = b.slots.clone();
+            slots[i] = child;
+            return new Branch(b.bitmap, slots);
+        }
+        if (n instanceof Collision) {
+            Leaf[] leaves = ((Collision) n).leaves;
+            for (int i = 0; i < leaves.length; i++) {
+                if (!leaves[i].is(hi, lo, index)) continue;
+                if (leaves.length == 2) return leaves[1 - i];
+                Leaf[] copy = new Leaf[leaves.length - 1];
+                System.arraycopy(leaves, 0, copy, 0, i);
+                System.arraycopy(leaves, i + 1, copy, i, copy.length - i);
+                return new Collision(copy);
+            }
+        }
+        return n;
+    }
+
+    private static void forEach(Object n, OutpointMap.Visitor<Object> visitor) {
+        if (n instanceof Leaf) {
+            Leaf leaf = (Leaf) n;
+            visitor.visit(leaf.hi, leaf.lo, leaf.index, leaf.value);
+        } else if (n instanceof Branch) {
+            for (Object child : ((Branch) n).slots) forEach(child, visitor);
+        } else if (n instanceof Collision) {
+            for (Leaf leaf : ((Collision) n).leaves) forEach(leaf, visitor);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+import java.util.Arrays;
+
+// Bloom filter over the most recently added keys, in fixed memory: it remembers at least the last
+// `capacity` keys (and at most the last 2 * capacity) with about `fpRate` false positives and no
+// false negatives among them. Two generations of `capacity` keys each; when the current one fills
+// up, the older is cleared and takes over. Not thread-safe.
+public final class RollingBloomFilter {
+    private final long[][] generations = new long[2][];
+    private final long bits;
+    private final int hashes;
+    private final int capacity;
+    private int current, count;
+
+    public RollingBloomFilter(int capacity, double fpRate) {
+        if (capacity <= 0 || !(fpRate > 0 && fpRate < 1)) throw new IllegalArgumentException("capacity " + capacity + ", fpRate " + fpRate);
+        // a key is looked up in both generations, so each gets half the false-positive budget
+        double ln2 = Math.log(2);
+        long m = (long) Math.ceil(-capacity * Math.log(fpRate / 2) / (ln2 * ln2));
+        int words = (int) ((m + 63) >>> 6);
+        this.bits = (long) words << 6;
+        this.hashes = Math.max(1, (int) Math.round((double) bits / capacity * ln2));
+        this.capacity = capacity;
+        generations[0] = new long[words];
+        generations[1] = new long[words];
+    }
+
+    public void add(String key) {
+        if (count == capacity) {
+            current ^= 1;
+            Arrays.fill(generations[current], 0);
+            count = 0;
+        }
+        long[] g = generations[current];
+        long h1 = hash(key), h2 = mix(h1) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bits);
+            g[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        count++;
+    }
+
+    public boolean mightContain(String key) {
+        long h1 = hash(key), h2 = mix(h1) | 1;
+        return contains(generations[current], h1, h2) || contains(generations[current ^ 1], h1, h2);
+    }
+
+    private boolean contains(long[] g, long h1, long h2) {
+        for (int i = 0; i < hashes; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bits);
+            if ((g[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    // FNV-1a over the chars, then a 64-bit finalizer so nearby ids spread over the whole range
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
@@ -0,0 +1,100 @@
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// Shared SHA-256 hashing: one reusable digest and scratch buffers per thread,
+// table-driven hex, and a bytes-in/bytes-out path that allocates nothing per hash
+public final class Sha256 {
+    public static final int LENGTH = 32;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private static final class Scratch {
+        final MessageDigest digest = newDigest();
+        final byte[] hash = new byte[LENGTH];
+        final char[] hex = new char[LENGTH * 2];
+        byte[] text = new byte[256];
+    }
+
+    private Sha256() {}
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // The calling thread's digest, reset and ready for update()/finish()
+    public static MessageDigest digest() {
+        MessageDigest d = SCRATCH.get().digest;
+        d.reset();
+        return d;
+    }
+
+    // Completes d into out[outOff .. outOff + 32)
+    public static void finish(MessageDigest d, byte[] out, int outOff) {
+        try {
+            d.digest(out, outOff, LENGTH);
+        } catch (DigestException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Hashes in[off .. off + len) into out[outOff .. outOff + 32)
+    public static void hash(byte[] in, int off, int len, byte[] out, int outOff) {
+        MessageDigest d = digest();
+        d.update(in, off, len);
+        finish(d, out, outOff);
+    }
+
+    // Hashes input's UTF-8 bytes into out[outOff .. outOff + 32)
+    public static void hash(String input, byte[] out, int outOff) {
+        Scratch s = SCRATCH.get();
+        int len = encode(input, s);
+        if (len < 0) {
+            byte[] utf8 = input.getBytes(StandardCharsets.UTF_8);
+            hash(utf8, 0, utf8.length, out, outOff);
+        } else {
+            hash(s.text, 0, len, out, outOff);
+        }
+    }
+
+    // Hex of the SHA-256 of input's UTF-8 bytes; the returned String is the only allocation
+    public static String hex(String input) {
+        byte[] h = SCRATCH.get().hash;
+        hash(input, h, 0);
+        return hex(h, 0);
+    }
+
+    public static String hex(byte[] hash, int off) {
+        char[] out = SCRATCH.get().hex;
+        hex(hash, off, out, 0);
+        return new String(out);
+    }
+
+    // Writes the 64 hex chars of hash[off .. off + 32) into out[outOff ..)
+    public static void hex(byte[] hash, int off, char[] out, int outOff) {
+        for (int i = 0; i < LENGTH; i++) {
+            int b = hash[off + i] & 0xff;
+            out[outOff + 2 * i] = HEX[b >>> 4];
+            out[outOff + 2 * i + 1] = HEX[b & 0x0f];
+        }
+    }
+
+    // ASCII fast path into the reusable text buffer; -1 if input needs real UTF-8 encoding
+    private static int encode(String input, Scratch s) {
+        int len = input.length();
+        if (s.text.length < len) s.text = new byte[Math.max(len, s.text.length * 2)];
+        byte[] text = s.text;
+        for (int i = 0; i < len; i++) {
+            char c = input.charAt(i);
+            if (c >= 0x80) return -1;
+            text[i] = (byte) c;
+        }
+        return len;
+    }
+}
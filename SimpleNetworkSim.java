@@ -0,0 +1,1693 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+// Simple simulation to demonstrate decentralized prevention of double-spend
+// - UTXO model
+// - Nodes validate, maintain local UTXO set + mempool
+// - Miner packs mempool txs into a block and does trivial PoW (find hash with prefix zeros)
+// - Conflicting txs racing: only one can get into the chain
+
+public class SimpleNetworkSim {
+
+    // ---- Data structures ----
+    static class TXIn { String prevTxId; int prevIndex; String owner; byte[] sig; } // sig: owner's Ed25519 signature, see Wallet
+    static class TXOut { String owner; int amount; }
+    static class Transaction {
+        static final int ID_HEX = 15; // 60 bits, the longest id OutpointMap stores verbatim
+        String id; // derivedId(), set by Wallet.sign once the tx is complete
+        List<TXIn> inputs = new ArrayList<>();
+        List<TXOut> outputs = new ArrayList<>();
+        public String toString() { return "TX("+id+")"; }
+        // Approximate serialized size in bytes, for fee rates and mempool limits
+        int size() {
+            int n = 4 + id.length();
+            for (TXIn in : inputs) n += in.prevTxId.length() + 4 + in.owner.length() + (in.sig == null ? 0 : in.sig.length);
+            for (TXOut o : outputs) n += o.owner.length() + 4;
+            return n;
+        }
+        // Content hash (Merkle leaf): id, spent outpoints, outputs and signatures, in the encoding of
+        // encode(), so two different txs never hash the same bytes
+        void hashInto(byte[] out, int off) {
+            MessageDigest d = Sha256.digest();
+            encode(d);
+            putInt(d, inputs.size());
+            for (TXIn in : inputs) putBytes(d, in.sig);
+            Sha256.finish(d, out, off);
+        }
+        // What each input signs (with its index): the hash of encodeBody(), everything but the id,
+        // which derives from it, and the signatures, so no change to what is spent or paid keeps them
+        byte[] sighash() {
+            byte[] h = new byte[Sha256.LENGTH];
+            MessageDigest d = Sha256.digest();
+            encodeBody(d);
+            Sha256.finish(d, h, 0);
+            return h;
+        }
+        // The id the content gives: the first ID_HEX hex digits of sighash(), so two txs share an id
+        // only if they spend and pay the same, and nobody can pick one
+        String derivedId() {
+            return idFor(sighash());
+        }
+        static String idFor(byte[] sighash) {
+            return Sha256.hex(sighash, 0).substring(0, ID_HEX);
+        }
+        // [id] then encodeBody(): [input count]([prevTxId][prevIndex][owner])*[output count]([owner][amount])*,
+        // with every string as [length][UTF-8 bytes] and every int as 4 big-endian bytes: nothing a field
+        // holds can pass for a separator, so the bytes determine the fields
+        void encode(MessageDigest d) {
+            putString(d, id);
+            encodeBody(d);
+        }
+        void encodeBody(MessageDigest d) {
+            putInt(d, inputs.size());
+            for (TXIn in : inputs) { putString(d, in.prevTxId); putInt(d, in.prevIndex); putString(d, in.owner); }
+            putInt(d, outputs.size());
+            for (TXOut o : outputs) { putString(d, o.owner); putInt(d, o.amount); }
+        }
+        static void putInt(MessageDigest d, int v) {
+            d.update((byte) (v >>> 24)); d.update((byte) (v >>> 16)); d.update((byte) (v >>> 8)); d.update((byte) v);
+        }
+        static void putString(MessageDigest d, String s) { putBytes(d, s == null ? null : s.getBytes(StandardCharsets.UTF_8)); }
+        static void putBytes(MessageDigest d, byte[] b) { // null is length -1, unlike empty
+            putInt(d, b == null ? -1 : b.length);
+            if (b != null) d.update(b);
+        }
+    }
+
+    // Header: [len|prevHash][merkleRoot][time][bits][nonce]. The Merkle root commits to txs, so
+    // the header has a fixed size and hashing one nonce costs the same for 1 tx or 10,000.
+    static class Block {
+        String prevHash; long nonce; String hash; List<Transaction> txs = new ArrayList<>();
+        long time; int bits; // creation time and the compact target the block is mined against
+        byte[] merkleRoot; byte[] header; byte[] hashBytes = new byte[Sha256.LENGTH];
+        Block(String prev){ this(prev, 0); }
+        Block(String prev, int bits){ this.prevHash=prev; this.bits=bits; time=System.currentTimeMillis(); nonce=0; commitTxs(); }
+        // Empty, at time 0, so every run and every node starts from the same hash
+        static Block genesis(){ Block g = new Block("0"); g.time = 0; g.commitTxs(); return g; }
+        // A block with just this header, as HeaderLog stores it: no txs, hash recomputed
+        static Block fromHeader(byte[] header){
+            ByteBuffer in = ByteBuffer.wrap(header);
+            byte[] prev = new byte[in.getInt()];
+            in.get(prev);
+            byte[] root = new byte[Sha256.LENGTH];
+            in.get(root);
+            Block b = new Block(new String(prev, StandardCharsets.UTF_8), 0);
+            b.time = in.getLong(); b.bits = in.getInt(); b.nonce = in.getLong();
+            b.merkleRoot = root; b.header = header(b.prevHash, root, b.time, b.bits); b.recalc();
+            return b;
+        }
+        // Rebuilds the Merkle root and header after txs change: once per template, not per nonce
+        void commitTxs(){ merkleRoot = merkleRoot(txs); header = header(prevHash, merkleRoot, time, bits); recalc(); }
+        void recalc(){ hashHeader(header, nonce, hashBytes); hash = Sha256.hex(hashBytes, 0); }
+        void hashHeader(){ hashHeader(header, nonce, hashBytes); }
+        // Rebuilds commitment, header and hash from the fields, as a receiving node must
+        boolean isWellFormed(){
+            byte[] root = merkleRoot(txs);
+            if (!Arrays.equals(root, merkleRoot)) return false;
+            byte[] check = new byte[Sha256.LENGTH];
+            hashHeader(header(prevHash, root, time, bits), nonce, check);
+            return Sha256.hex(check, 0).equals(hash);
+        }
+        static byte[] header(String prevHash, byte[] merkleRoot, long time, int bits){
+            byte[] prev = prevHash.getBytes(StandardCharsets.UTF_8);
+            return ByteBuffer.allocate(4 + prev.length + Sha256.LENGTH + 8 + 4 + 8)
+                    .putInt(prev.length).put(prev).put(merkleRoot).putLong(time).putInt(bits).array();
+        }
+        // Writes nonce into the header's last 8 bytes and hashes it into out; allocation-free
+        static void hashHeader(byte[] header, long nonce, byte[] out){
+            int n = header.length - 8;
+            for (int i = 0; i < 8; i++) header[n + i] = (byte) (nonce >>> (56 - 8 * i));
+            Sha256.hash(header, 0, header.length, out, 0);
+        }
+        // Approximate serialized size in bytes: header plus txs, for relay accounting
+        int size(){
+            int n = header.length;
+            for (Transaction tx : txs) n += tx.size();
+            return n;
+        }
+        public String toString(){ return "Block("+hash.substring(0,6)+")"; }
+    }
+
+    // UTXO set behind a Node. Changes become durable as a unit at commit(tip), which Node
+    // calls once per applied block; tip() is the block the stored state belongs to.
+    // get/contains may run on several threads at once while nobody writes.
+    interface UtxoSet {
+        TXOut get(String txId, int index);
+        default boolean contains(String txId, int index) { return get(txId, index) != null; }
+        void put(String txId, int index, TXOut out);
+        TXOut remove(String txId, int index);
+        int size();
+        List<String> keys(); // "txid:index", for printing
+        default void commit(String tipHash) {}
+        default String tip() { return null; }
+        default void close() {}
+    }
+
+    // Default backend: the whole set on the heap in primitive columns, gone when the process exits
+    static class HeapUtxoSet implements UtxoSet {
+        final UtxoMap map = new UtxoMap();
+        String tip;
+        public TXOut get(String txId, int index) { return map.get(txId, index); }
+        public boolean contains(String txId, int index) { return map.contains(txId, index); }
+        public void put(String txId, int index, TXOut out) { map.put(txId, index, out); }
+        public TXOut remove(String txId, int index) { return map.remove(txId, index); }
+        public int size() { return map.size(); }
+        public List<String> keys() { return map.keys(); }
+        public void commit(String tipHash) { tip = tipHash; }
+        public String tip() { return tip; }
+    }
+
+    // Copy-on-write backend over a persistent trie: fork() is O(1) and the fork shares every
+    // entry with its source, so nodes built from one state cost memory only for what they change.
+    // A block takes every fork at its parent to the same state, so the first fork to commit it
+    // publishes the result and the others take that root in place of their own copy: N nodes on
+    // one chain hold one version of each recent state, not N.
+    static class SharedUtxoSet implements UtxoSet {
+        static final int SHARED_STATES = 64;
+        volatile PersistentOutpointMap<TXOut> map = PersistentOutpointMap.empty();
+        volatile String tip;
+        // States committed by this set and its forks, by parent tip and block hash; most recent last
+        private final Map<String, PersistentOutpointMap<TXOut>> committed;
+        SharedUtxoSet() { this(Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, PersistentOutpointMap<TXOut>> e) { return size() > SHARED_STATES; }
+        })); }
+        private SharedUtxoSet(Map<String, PersistentOutpointMap<TXOut>> committed) { this.committed = committed; }
+        SharedUtxoSet fork() { SharedUtxoSet f = new SharedUtxoSet(committed); f.map = map; f.tip = tip; return f; }
+        public TXOut get(String txId, int index) { return map.get(txId, index); }
+        public void put(String txId, int index, TXOut out) { map = map.with(txId, index, out); }
+        public TXOut remove(String txId, int index) {
+            TXOut old = map.get(txId, index);
+            if (old != null) map = map.without(txId, index);
+            return old;
+        }
+        public int size() { return map.size(); }
+        public List<String> keys() { return map.keys(); }
+        public void commit(String tipHash) {
+            PersistentOutpointMap<TXOut> shared = committed.putIfAbsent(tip + ">" + tipHash, map);
+            if (shared != null) map = shared;
+            tip = tipHash;
+        }
+        public String tip() { return tip; }
+    }
+
+    // Bitcoin-style Merkle root over tx hashes; an odd node is paired with itself, no txs gives zeros.
+    // Leaves of large blocks are hashed in parallel; they are most of the work.
+    static final int PARALLEL_MERKLE_LEAVES = 1024;
+    static byte[] merkleRoot(List<Transaction> txs) {
+        int n = txs.size();
+        if (n == 0) return new byte[Sha256.LENGTH];
+        byte[] level = new byte[n * Sha256.LENGTH];
+        IntStream leaves = IntStream.range(0, n);
+        (n >= PARALLEL_MERKLE_LEAVES ? leaves.parallel() : leaves).forEach(i -> txs.get(i).hashInto(level, i * Sha256.LENGTH));
+        while (n > 1) {
+            int next = (n + 1) / 2;
+            for (int i = 0; i < next; i++) {
+                int left = 2 * i, right = Math.min(2 * i + 1, n - 1);
+                MessageDigest d = Sha256.digest();
+                d.update(level, left * Sha256.LENGTH, Sha256.LENGTH);
+                d.update(level, right * Sha256.LENGTH, Sha256.LENGTH);
+                Sha256.finish(d, level, i * Sha256.LENGTH); // in place: slot i was already consumed
+            }
+            n = next;
+        }
+        return Arrays.copyOf(level, Sha256.LENGTH);
+    }
+
+    // Simple chain: blocks by height (read-only outside Chain), plus a hash -> height index so
+    // lookups by hash are O(1). The index is open addressing over primitive arrays keyed by the
+    // first 64 bits of the hash, with no objects per block: 16 to 32 bytes a block.
+    static class Chain {
+        static final int RETARGET_INTERVAL = 8;
+        static final long TARGET_BLOCK_MILLIS = 250;
+        List<Block> blocks = new ArrayList<>();
+        volatile int bits = Target.fromLeadingZeros(2); // target the next block must meet
+        // The last block, set after everything else an append or removal changes: miners read it and
+        // then bits without the node's monitor, so they never see bits older than the tip they got
+        private volatile Block tip;
+        private long[] keys = new long[16];
+        private int[] heights = new int[16]; // height + 1; 0 marks an empty slot
+        HeaderLog log; // where appends and removals are recorded, if anywhere
+        Chain(Block genesis){ blocks.add(genesis); index(genesis.hash, 0); tip = genesis; }
+        // Safe to call from any thread; the other methods need the owner's lock
+        String tipHash(){ return tip.hash; }
+        int height(){ return blocks.size()-1; }
+        // Height of the block with this hash, or -1 if it is not on the chain
+        int height(String hash){
+            long k = key(hash);
+            for (int i = slot(k); heights[i] != 0; i = (i + 1) & (keys.length - 1)) {
+                if (keys[i] == k && blocks.get(heights[i] - 1).hash.equals(hash)) return heights[i] - 1;
+            }
+            return -1;
+        }
+        boolean contains(String hash){ return height(hash) >= 0; }
+        Block get(String hash){ int h = height(hash); return h < 0 ? null : blocks.get(h); }
+        // Drops the tip; the next block must again meet the target the dropped one was mined against
+        Block removeTip(){
+            if (log != null) log.truncate(height() - 1);
+            Block b = blocks.remove(blocks.size()-1); unindex(b.hash); bits = b.bits; tip = blocks.get(blocks.size()-1); return b;
+        }
+        // Every RETARGET_INTERVAL blocks, scale the target toward TARGET_BLOCK_MILLIS per block
+        void append(Block b){
+            if (log != null) log.append(b);
+            blocks.add(b);
+            index(b.hash, blocks.size() - 1);
+            int h = blocks.size();
+            if (h > RETARGET_INTERVAL && h % RETARGET_INTERVAL == 0) {
+                long actual = b.time - blocks.get(h - 1 - RETARGET_INTERVAL).time;
+                bits = Target.retarget(bits, actual, RETARGET_INTERVAL * TARGET_BLOCK_MILLIS);
+            }
+            tip = b;
+        }
+
+        private void index(String hash, int height) {
+            if (height + 1 > keys.length * 3 / 4) {
+                long[] oldKeys = keys;
+                int[] oldHeights = heights;
+                keys = new long[oldKeys.length * 2];
+                heights = new int[oldKeys.length * 2];
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldHeights[i] != 0) insert(oldKeys[i], oldHeights[i]);
+                }
+            }
+            insert(key(hash), height + 1);
+        }
+
+        private void insert(long k, int entry) {
+            int i = slot(k);
+            while (heights[i] != 0) i = (i + 1) & (keys.length - 1);
+            keys[i] = k;
+            heights[i] = entry;
+        }
+
+        // Only the tip is ever removed, so its entry is the one holding height blocks.size() + 1;
+        // backward-shift deletion keeps every probe run unbroken
+        private void unindex(String hash) {
+            int mask = keys.length - 1, gone = blocks.size() + 1;
+            int i = slot(key(hash));
+            while (heights[i] != gone) i = (i + 1) & mask;
+            for (int j = (i + 1) & mask; heights[j] != 0; j = (j + 1) & mask) {
+                int home = slot(keys[j]);
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    keys[i] = keys[j];
+                    heights[i] = heights[j];
+                    i = j;
+                }
+            }
+            heights[i] = 0;
+        }
+
+        private int slot(long k) {
+            return (int) ((k * 0x9E3779B97F4A7C15L) >>> 32) & (keys.length - 1);
+        }
+
+        // The first 16 hex digits of a block hash; any other string still gets some key
+        private static long key(String hash) {
+            long k = 0;
+            for (int i = 0, n = Math.min(16, hash.length()); i < n; i++) k = (k << 4) ^ Character.digit(hash.charAt(i), 16);
+            return k;
+        }
+    }
+
+    // A chain's headers above genesis in an append-only file, one [len][header] record per block,
+    // forced as written, so a restarted node gets its chain back. Blocks come back without their
+    // txs; the UTXO set stored beside the log already holds their effect. A torn last record is
+    // dropped on open.
+    static final class HeaderLog {
+        private final Path file;
+        private final List<Long> ends = new ArrayList<>(); // file length after each record
+
+        private HeaderLog(Path file) { this.file = file; }
+
+        // Appends the logged blocks to chain, which must hold just genesis, as far as they link up,
+        // and records its appends and removals from then on
+        static HeaderLog attach(Chain chain, Path file) throws IOException {
+            HeaderLog log = new HeaderLog(file);
+            if (Files.exists(file)) {
+                ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+                while (in.remaining() >= 4) {
+                    int len = in.getInt(in.position());
+                    if (len <= 0 || in.remaining() - 4 < len) break;
+                    byte[] header = new byte[len];
+                    in.position(in.position() + 4).get(header);
+                    Block b = Block.fromHeader(header);
+                    if (!b.prevHash.equals(chain.tipHash())) break;
+                    chain.append(b);
+                    log.ends.add((long) in.position());
+                }
+                log.truncate(log.ends.size());
+            }
+            chain.log = log;
+            return log;
+        }
+
+        void append(Block b) {
+            long end = ends.isEmpty() ? 0 : ends.get(ends.size() - 1);
+            ByteBuffer record = ByteBuffer.allocate(4 + b.header.length).putInt(b.header.length).put(b.header);
+            record.flip();
+            try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                while (record.hasRemaining()) end += out.write(record, end);
+                out.force(true);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            ends.add(end);
+        }
+
+        // Keeps the first n records
+        void truncate(int n) {
+            long end = n == 0 ? 0 : ends.get(n - 1);
+            try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                if (out.size() > end) {
+                    out.truncate(end);
+                    out.force(true);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            ends.subList(n, ends.size()).clear();
+        }
+    }
+
+    // ---- Signatures ----
+
+    // Key directory and signer for the simulation: every owner name gets an Ed25519 key pair on
+    // first use, and an output's owner name stands for its public key. Input i signs the tx's
+    // sighash followed by i, so a signature cannot be moved to another input or tx.
+    static final class Wallet {
+        private static final Map<String, KeyPair> KEYS = new ConcurrentHashMap<>();
+        private static final ThreadLocal<Signature> ED25519 = ThreadLocal.withInitial(() -> {
+            try { return Signature.getInstance("Ed25519"); } catch (GeneralSecurityException e) { throw new IllegalStateException(e); }
+        });
+
+        static KeyPair keys(String owner) {
+            return KEYS.computeIfAbsent(owner, o -> {
+                try { return KeyPairGenerator.getInstance("Ed25519").generateKeyPair(); }
+                catch (GeneralSecurityException e) { throw new IllegalStateException(e); }
+            });
+        }
+
+        // Names tx after its content and signs every input with the key of the owner it names; call
+        // once the tx is complete
+        static void sign(Transaction tx) {
+            tx.id = tx.derivedId();
+            byte[] sighash = tx.sighash();
+            try {
+                for (int i = 0; i < tx.inputs.size(); i++) {
+                    TXIn in = tx.inputs.get(i);
+                    Signature s = ED25519.get();
+                    s.initSign(keys(in.owner).getPrivate());
+                    s.update(sighash);
+                    s.update(ByteBuffer.allocate(4).putInt(i).array());
+                    in.sig = s.sign();
+                }
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        static boolean verify(PublicKey key, byte[] sighash, int i, byte[] sig) {
+            try {
+                Signature s = ED25519.get();
+                s.initVerify(key);
+                s.update(sighash);
+                s.update(ByteBuffer.allocate(4).putInt(i).array());
+                return s.verify(sig);
+            } catch (GeneralSecurityException e) {
+                return false; // malformed signature
+            }
+        }
+    }
+
+    // Bounded cache of signatures already verified, keyed by 128 bits of
+    // sha256(sighash | input index | public key | signature). Direct-mapped: a new entry
+    // overwrites whatever shared its slot, so the size is fixed and there are no locks. Racing
+    // writers can tear a slot, but a torn pair matches no real key.
+    static final class SigCache {
+        private final long[] keys; // hi, lo per slot
+        private final int mask;
+        SigCache(int slots) { int n = Integer.highestOneBit(Math.max(slots, 2)); keys = new long[2 * n]; mask = n - 1; }
+        static byte[] key(byte[] sighash, int i, PublicKey key, byte[] sig) {
+            MessageDigest d = Sha256.digest();
+            d.update(sighash);
+            d.update(ByteBuffer.allocate(4).putInt(i).array());
+            d.update(key.getEncoded());
+            d.update(sig);
+            byte[] k = new byte[Sha256.LENGTH];
+            Sha256.finish(d, k, 0);
+            return k;
+        }
+        boolean contains(byte[] k) {
+            long hi = ByteBuffer.wrap(k).getLong(0), lo = ByteBuffer.wrap(k).getLong(8);
+            int slot = (int) lo & mask;
+            return keys[2 * slot] == hi && keys[2 * slot + 1] == lo && (hi | lo) != 0;
+        }
+        void add(byte[] k) {
+            long hi = ByteBuffer.wrap(k).getLong(0), lo = ByteBuffer.wrap(k).getLong(8);
+            int slot = (int) lo & mask;
+            keys[2 * slot] = hi;
+            keys[2 * slot + 1] = lo;
+        }
+    }
+
+    // ---- Mempool ----
+
+    // Unconfirmed txs ordered by fee rate (fee per byte), best first, capped by count and bytes.
+    // When full, the lowest-rate txs are evicted to make room, unless the newcomer pays even less.
+    // Also indexes the outpoints its txs spend, for conflict checks, and links txs that spend
+    // each other's outputs, so unconfirmed chains are mined and evicted as units.
+    static class Mempool {
+        static final class Entry {
+            final Transaction tx; final long fee; final int size; final long seq;
+            final List<Entry> parents = new ArrayList<>(1), children = new ArrayList<>(1); // in-pool only
+            Entry(Transaction tx, long fee, long seq){ this.tx=tx; this.fee=fee; this.size=Math.max(tx.size(), 1); this.seq=seq; }
+        }
+        // fee/size compared by cross-multiplying; ties go to the earlier arrival
+        static final Comparator<Entry> BY_FEE_RATE = (a, b) -> {
+            int c = Long.compare(b.fee * a.size, a.fee * b.size);
+            return c != 0 ? c : Long.compare(a.seq, b.seq);
+        };
+
+        final int maxCount; final long maxBytes;
+        private final TreeSet<Entry> byFeeRate = new TreeSet<>(BY_FEE_RATE);
+        private final Map<String, Entry> byId = new HashMap<>();
+        // outpoint -> mempool tx spending it
+        private final OutpointMap<Transaction> spentBy = new OutpointMap<>();
+        private long bytes, seq, evicted;
+
+        Mempool(){ this(1_000_000, 300L << 20); }
+        Mempool(int maxCount, long maxBytes){ this.maxCount=maxCount; this.maxBytes=maxBytes; }
+
+        // Adds a validated tx paying fee; false if it is already here or the pool is full of better-paying txs
+        synchronized boolean add(Transaction tx, long fee) {
+            if (byId.containsKey(tx.id)) return false;
+            Entry e = new Entry(tx, fee, seq++);
+            byId.put(tx.id, e);
+            byFeeRate.add(e);
+            bytes += e.size;
+            for (TXIn in : tx.inputs) {
+                spentBy.put(in.prevTxId, in.prevIndex, tx);
+                Entry parent = byId.get(in.prevTxId);
+                if (parent != null && !e.parents.contains(parent)) link(parent, e);
+            }
+            // a tx coming back from a disconnected block may already have children here
+            for (int i = 0; i < tx.outputs.size(); i++) {
+                Transaction spender = spentBy.get(tx.id, i);
+                Entry child = spender == null ? null : byId.get(spender.id);
+                if (child != null && !e.children.contains(child)) link(e, child);
+            }
+            // evicting a tx takes its descendants with it: they cannot confirm without it
+            while (byId.size() > maxCount || bytes > maxBytes) {
+                evicted += removeWithDescendants(byFeeRate.last().tx.id).size();
+            }
+            return byId.containsKey(tx.id);
+        }
+
+        private static void link(Entry parent, Entry child) {
+            parent.children.add(child);
+            child.parents.add(parent);
+        }
+
+        // Removes one tx, e.g. because a block confirmed it; its children stay, now spending confirmed outputs
+        synchronized Transaction remove(String txId) {
+            Entry e = byId.remove(txId);
+            if (e == null) return null;
+            byFeeRate.remove(e);
+            bytes -= e.size;
+            for (TXIn in : e.tx.inputs) {
+                if (spentBy.get(in.prevTxId, in.prevIndex) == e.tx) spentBy.remove(in.prevTxId, in.prevIndex);
+            }
+            for (Entry p : e.parents) p.children.remove(e);
+            for (Entry c : e.children) c.parents.remove(e);
+            return e.tx;
+        }
+
+        // Removes a tx and everything in the pool that spends its outputs, directly or not,
+        // e.g. when it lost an input to a conflicting block; O(descendants)
+        synchronized List<Transaction> removeWithDescendants(String txId) {
+            List<Transaction> removed = new ArrayList<>();
+            Entry root = byId.get(txId);
+            if (root == null) return removed;
+            Deque<Entry> todo = new ArrayDeque<>();
+            todo.push(root);
+            while (!todo.isEmpty()) {
+                Entry e = todo.pop();
+                if (byId.get(e.tx.id) != e) continue; // reached twice through a diamond
+                for (Entry c : e.children) todo.push(c);
+                removed.add(remove(e.tx.id));
+            }
+            return removed;
+        }
+
+        synchronized boolean contains(String txId) { return byId.containsKey(txId); }
+        synchronized Transaction get(String txId) { Entry e = byId.get(txId); return e == null ? null : e.tx; }
+        // The mempool tx spending txId:index, if any
+        synchronized Transaction spender(String txId, int index) { return spentBy.get(txId, index); }
+        synchronized int size() { return byId.size(); }
+        synchronized long bytes() { return bytes; }
+        synchronized long evicted() { return evicted; }
+
+        // Up to k txs for a block, best-paying first, each preceded by its unconfirmed ancestors so
+        // every tx comes after the txs it spends; a package that would overflow k is skipped.
+        // O(k * ancestors + log n), no copy of the pool.
+        synchronized List<Transaction> top(int k) {
+            List<Transaction> out = new ArrayList<>(Math.min(k, byId.size()));
+            Set<Entry> taken = Collections.newSetFromMap(new IdentityHashMap<>());
+            List<Entry> pkg = new ArrayList<>();
+            for (Iterator<Entry> it = byFeeRate.iterator(); it.hasNext() && out.size() < k; ) {
+                Entry e = it.next();
+                if (taken.contains(e)) continue;
+                pkg.clear();
+                collectAncestors(e, taken, pkg);
+                if (out.size() + pkg.size() > k) {
+                    taken.removeAll(pkg);
+                    continue;
+                }
+                for (Entry p : pkg) out.add(p.tx);
+            }
+            return out;
+        }
+
+        // Appends e's untaken ancestors, parents first, and then e
+        private static void collectAncestors(Entry e, Set<Entry> taken, List<Entry> pkg) {
+            if (!taken.add(e)) return;
+            for (Entry p : e.parents) collectAncestors(p, taken, pkg);
+            pkg.add(e);
+        }
+
+        // Tx ids best first, for printing
+        synchronized List<String> ids() {
+            List<String> out = new ArrayList<>(byId.size());
+            for (Entry e : byFeeRate) out.add(e.tx.id);
+            return out;
+        }
+
+        synchronized List<Transaction> txs() {
+            List<Transaction> out = new ArrayList<>(byId.size());
+            for (Entry e : byId.values()) out.add(e.tx);
+            return out;
+        }
+    }
+
+    // ---- Compact blocks ----
+    // A block's header plus a 6-byte short id per tx. The receiver rebuilds the block from its own
+    // mempool and asks the sender only for the txs it lacks, so a block whose txs were already
+    // relayed costs a few bytes per tx instead of the whole tx. Short ids are salted with the block
+    // hash, so nobody can line up collisions ahead of time; a collision only costs a fallback.
+    static final class CompactBlock {
+        static final int SHORT_ID_BYTES = 6;
+        final String prevHash, hash; final long time, nonce; final int bits, headerBytes;
+        final long[] shortIds;
+
+        CompactBlock(Block b) {
+            prevHash = b.prevHash; hash = b.hash; time = b.time; nonce = b.nonce; bits = b.bits; headerBytes = b.header.length;
+            shortIds = new long[b.txs.size()];
+            long salt = salt(hash);
+            for (int i = 0; i < shortIds.length; i++) shortIds[i] = shortId(b.txs.get(i).id, salt);
+        }
+
+        int size() { return headerBytes + SHORT_ID_BYTES * shortIds.length; }
+
+        // The pool's txs at the positions their short ids name; null where none or more than one matches
+        Transaction[] match(List<Transaction> pool) {
+            Map<Long, Integer> position = new HashMap<>(shortIds.length * 2);
+            for (int i = 0; i < shortIds.length; i++) position.put(shortIds[i], i);
+            Transaction[] txs = new Transaction[shortIds.length];
+            boolean[] clash = new boolean[shortIds.length];
+            long salt = salt(hash);
+            for (Transaction tx : pool) {
+                Integer i = position.get(shortId(tx.id, salt));
+                if (i == null) continue;
+                if (txs[i] != null) clash[i] = true;
+                txs[i] = tx;
+            }
+            for (int i = 0; i < txs.length; i++) if (clash[i]) txs[i] = null;
+            return txs;
+        }
+
+        // The block these txs make, or null if it does not hash to this header (a short id matched the wrong tx)
+        Block toBlock(Transaction[] txs) {
+            Block b = new Block(prevHash, bits);
+            b.time = time; b.nonce = nonce;
+            b.txs.addAll(Arrays.asList(txs));
+            b.commitTxs();
+            return b.hash.equals(hash) ? b : null;
+        }
+
+        private static long salt(String hash) {
+            return Long.parseUnsignedLong(hash, hash.length() - 16, hash.length(), 16);
+        }
+
+        // FNV-1a over the id, mixed with the salt and cut to SHORT_ID_BYTES
+        static long shortId(String txId, long salt) {
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < txId.length(); i++) h = (h ^ txId.charAt(i)) * 0x100000001b3L;
+            h ^= salt;
+            h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+            h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+            return (h ^ (h >>> 33)) >>> (64 - 8 * SHORT_ID_BYTES);
+        }
+    }
+
+    // A compact block waiting for the txs its receiver asked for
+    static final class PartialBlock {
+        final CompactBlock compact; final Transaction[] txs;
+        PartialBlock(CompactBlock compact, Transaction[] txs){ this.compact=compact; this.txs=txs; }
+    }
+
+    // ---- Node ----
+
+    // What connecting one block changed: each output it spent, with its value, and each tx whose
+    // outputs it created (ids plus output counts). Enough to disconnect it in O(block size).
+    static final class BlockUndo {
+        final String hash;
+        final String[] spentTxIds; final int[] spentIndexes; final TXOut[] spentOuts;
+        final String[] createdTxIds; final int[] createdOutputs;
+        BlockUndo(Block b) {
+            hash = b.hash;
+            int inputs = 0;
+            for (Transaction tx : b.txs) inputs += tx.inputs.size();
+            spentTxIds = new String[inputs]; spentIndexes = new int[inputs]; spentOuts = new TXOut[inputs];
+            createdTxIds = new String[b.txs.size()]; createdOutputs = new int[b.txs.size()];
+        }
+    }
+
+    // Concurrent outpoint set for claiming spends: OutpointMaps behind striped locks, picked by
+    // the top bits of the outpoint hash, so parallel claims rarely meet on one lock
+    static final class ClaimSet {
+        private static final int STRIPE_BITS = 6;
+        private final OutpointMap<TXIn>[] stripes;
+        @SuppressWarnings("unchecked")
+        ClaimSet(int expected) {
+            stripes = (OutpointMap<TXIn>[]) new OutpointMap<?>[1 << STRIPE_BITS];
+            for (int i = 0; i < stripes.length; i++) stripes[i] = new OutpointMap<>(expected >> STRIPE_BITS);
+        }
+        // False if the outpoint was already claimed
+        boolean claim(TXIn in) {
+            long hi = OutpointMap.packHi(in.prevTxId), lo = OutpointMap.packLo(in.prevTxId);
+            OutpointMap<TXIn> stripe = stripes[OutpointMap.hash(hi, lo, in.prevIndex) >>> (32 - STRIPE_BITS)];
+            synchronized (stripe) { return stripe.put(hi, lo, in.prevIndex, in) == null; }
+        }
+    }
+
+    // Txs that spend an output of a tx the node does not have yet, held until that parent arrives:
+    // gossip fetches a child and its parent from whichever peers announced them first, so the child
+    // can come in first. Capped at capacity, dropping the oldest; not thread-safe.
+    static final class OrphanPool {
+        private static final class Orphan {
+            final Transaction tx; final String parent;
+            Orphan(Transaction tx, String parent){ this.tx=tx; this.parent=parent; }
+        }
+        private final int capacity;
+        private final LinkedHashMap<String, Orphan> byId = new LinkedHashMap<>();
+        private final Map<String, List<Transaction>> byParent = new HashMap<>();
+        OrphanPool(int capacity){ this.capacity = capacity; }
+        int size(){ return byId.size(); }
+        boolean contains(String txId){ return byId.containsKey(txId); }
+        void add(Transaction tx, String parent) {
+            if (byId.containsKey(tx.id)) return;
+            if (byId.size() == capacity) {
+                Orphan oldest = byId.remove(byId.keySet().iterator().next());
+                List<Transaction> siblings = byParent.get(oldest.parent);
+                siblings.remove(oldest.tx);
+                if (siblings.isEmpty()) byParent.remove(oldest.parent);
+            }
+            byId.put(tx.id, new Orphan(tx, parent));
+            byParent.computeIfAbsent(parent, k -> new ArrayList<>(1)).add(tx);
+        }
+        // Removes and returns the orphans waiting on parent
+        List<Transaction> take(String parent) {
+            if (byId.isEmpty()) return List.of();
+            List<Transaction> children = byParent.remove(parent);
+            if (children == null) return List.of();
+            for (Transaction tx : children) byId.remove(tx.id);
+            return children;
+        }
+    }
+
+    // Propagation latency in microseconds, from the first broadcast of a tx or block to its
+    // acceptance at each other node
+    static final Histogram TX_LATENCY = new Histogram();
+    static final Histogram BLOCK_LATENCY = new Histogram();
+    // Bytes of block data sent between peers: full blocks, compact blocks, tx requests and fetched txs
+    static final LongAdder BLOCK_RELAY_BYTES = new LongAdder();
+
+    // Nodes talk only through each other's inbox: a node handles its messages one at a time on its
+    // own worker thread, and relaying just enqueues, so no node waits on another node's monitor
+    static class Node {
+        String name;
+        // utxo is guarded by this node's monitor; the mempool also locks itself, for miners
+        final UtxoSet utxo;
+        final Mempool mempool = new Mempool();
+        Chain chain;
+        List<Node> peers = new ArrayList<>();
+        // Messages from peers, run in arrival order by one worker made by the node's thread factory
+        final ExecutorService inbox;
+        final AtomicInteger pending = new AtomicInteger(); // queued or running messages
+        final AtomicLong handled = new AtomicLong();
+        final AtomicLong validations = new AtomicLong(); // txs run through admission checks
+        // Ids of txs this node has validated or requested lately; see inv
+        final RollingBloomFilter seen;
+        // Ids of txs in the blocks this node connected lately; see holdOrphan
+        final RollingBloomFilter confirmed;
+        // Txs that came in before a tx whose output they spend; see receiveTx
+        final OrphanPool orphans = new OrphanPool(100);
+        // Relay blocks compact (header and short tx ids) rather than in full
+        boolean compactBlocks = true;
+        // Compact blocks waiting on fetched txs, by hash; only the latest few are kept
+        private final Map<String, PartialBlock> partialBlocks = new LinkedHashMap<>() {
+            protected boolean removeEldestEntry(Map.Entry<String, PartialBlock> e) { return size() > 8; }
+        };
+        // Undo data for the most recent blocks this node connected, oldest first; reorgs deeper
+        // than undoDepth are refused
+        final Deque<BlockUndo> undo = new ArrayDeque<>();
+        int undoDepth = 100;
+        // Blocks and tx batches with at least this many txs have their inputs checked in parallel on the common pool
+        int parallelValidationThreshold = 256;
+        // Signatures this node has verified, so a tx checked at admission is not checked again in its block
+        final SigCache verified;
+        boolean verbose = true; // print what the node accepts and rejects
+
+        Node(String name, Chain chain){ this(name, chain, new HeapUtxoSet()); }
+        // utxo may be reopened persistent state, e.g. a MappedUtxoSet, instead of starting empty
+        Node(String name, Chain chain, UtxoSet utxo){ this(name, chain, utxo, daemonThreads(name)); }
+        Node(String name, Chain chain, UtxoSet utxo, ThreadFactory workers){ this(name, chain, utxo, workers, new SigCache(1 << 16), 1 << 16); }
+        // verified may be shared by several nodes; seenCapacity sizes the gossip seen-set. Big
+        // networks share one cache and shrink the seen-set to fit one heap.
+        Node(String name, Chain chain, UtxoSet utxo, ThreadFactory workers, SigCache verified, int seenCapacity){
+            this.name=name; this.chain=chain; this.utxo=utxo;
+            this.inbox = Executors.newSingleThreadExecutor(workers); // the worker starts with the first message
+            this.verified = verified;
+            this.seen = new RollingBloomFilter(seenCapacity, 1e-6);
+            this.confirmed = new RollingBloomFilter(seenCapacity, 1e-6);
+        }
+
+        void log(String message) {
+            if (verbose) System.out.println("[" + name + "] " + message);
+        }
+
+        void connect(Node other){ if(!peers.contains(other)) peers.add(other); }
+
+        // Queues a message for this node's worker and returns at once; dropped after close()
+        void send(Runnable message) {
+            pending.incrementAndGet();
+            try {
+                inbox.execute(() -> {
+                    try {
+                        message.run();
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    } finally {
+                        handled.incrementAndGet();
+                        pending.decrementAndGet();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                pending.decrementAndGet();
+            }
+        }
+
+        // Hands a message to every peer but from
+        private void relay(Node from, Consumer<Node> message) {
+            for (Node p: peers) {
+                if (p != from) p.send(() -> message.accept(p));
+            }
+        }
+
+        // Receive transaction from user or peers
+        synchronized void receiveTx(Transaction tx) {
+            receiveTx(tx, null, System.nanoTime());
+        }
+
+        // sentAt: when the tx was first broadcast, for TX_LATENCY
+        private synchronized void receiveTx(Transaction tx, Node from, long sentAt) {
+            seen.add(tx.id);
+            if (addToMempool(tx)) {
+                if (from != null) TX_LATENCY.record((System.nanoTime() - sentAt) / 1000);
+                announce(from, List.of(tx.id), sentAt);
+                log("accepted " + tx);
+                adoptOrphans(List.of(tx.id), sentAt);
+            } else if (!holdOrphan(tx)) {
+                log("rejected " + tx + " (invalid or double-spend)");
+            }
+        }
+
+        // Admits a batch under one lock and one state: each tx is checked against the UTXO set, the
+        // mempool and the txs accepted before it in the batch, so an in-batch conflict keeps the
+        // first spend and in-batch parent/child chains are fine. The accepted subset is announced to
+        // every other peer in one inv; txs already in the mempool are skipped before validation.
+        synchronized List<Transaction> receiveTxBatch(List<Transaction> txs) {
+            return receiveTxBatch(txs, null, System.nanoTime());
+        }
+
+        private synchronized List<Transaction> receiveTxBatch(List<Transaction> txs, Node from, long sentAt) {
+            List<Transaction> accepted = new ArrayList<>(txs.size());
+            // outside the mempool monitor: the workers read the mempool too
+            if (txs.size() >= parallelValidationThreshold) verifyBatch(txs);
+            synchronized (mempool) { // one monitor entry for the batch; the per-tx ones nest cheaply
+                for (Transaction tx : txs) {
+                    seen.add(tx.id);
+                    if (mempool.contains(tx.id)) continue;
+                    if (addToMempool(tx)) accepted.add(tx);
+                    else holdOrphan(tx);
+                }
+            }
+            if (accepted.isEmpty()) return accepted;
+            if (from != null) {
+                long latency = (System.nanoTime() - sentAt) / 1000;
+                for (int i = 0; i < accepted.size(); i++) TX_LATENCY.record(latency);
+            }
+            List<String> ids = new ArrayList<>(accepted.size());
+            for (Transaction tx : accepted) ids.add(tx.id);
+            announce(from, ids, sentAt);
+            log("accepted " + accepted.size() + " of " + txs.size() + " txs in batch");
+            adoptOrphans(ids, sentAt);
+            return accepted;
+        }
+
+        // Keeps a rejected tx as an orphan if it spends an output of a tx this node does not know,
+        // as when its parent is still on the way from another peer. Its id stays seen, so the pool
+        // is what lets it in once the parent arrives. An output missing from a parent in the mempool
+        // or in a recent block is spent or never existed, and waiting will not bring it: such a tx,
+        // a double-spend of a confirmed output say, is dropped and does not take a slot.
+        private boolean holdOrphan(Transaction tx) {
+            String parent = null;
+            for (TXIn in : tx.inputs) {
+                if (utxo.contains(in.prevTxId, in.prevIndex) || unconfirmedOutput(in.prevTxId, in.prevIndex) != null) continue;
+                if (mempool.contains(in.prevTxId) || confirmed.mightContain(in.prevTxId)) return false;
+                if (parent == null) parent = in.prevTxId;
+            }
+            if (parent == null) return false;
+            orphans.add(tx, parent);
+            log("holding " + tx + " until " + parent + " arrives");
+            return true;
+        }
+
+        // Admits the orphans waiting on these txs, then those waiting on them in turn, and
+        // announces the ones accepted to every peer
+        private void adoptOrphans(List<String> parents, long sentAt) {
+            if (orphans.size() == 0) return;
+            Deque<String> waiting = new ArrayDeque<>(parents);
+            List<String> adopted = new ArrayList<>();
+            while (!waiting.isEmpty()) {
+                for (Transaction tx : orphans.take(waiting.poll())) {
+                    if (addToMempool(tx)) {
+                        adopted.add(tx.id);
+                        waiting.add(tx.id);
+                        log("accepted orphan " + tx);
+                    } else {
+                        holdOrphan(tx); // may still miss another parent
+                    }
+                }
+            }
+            if (!adopted.isEmpty()) announce(null, adopted, sentAt);
+        }
+
+        // ---- Gossip ----
+        // Txs spread by announce and request: a node that accepts txs sends their ids to its peers
+        // (inv), each peer asks for the ids it has not seen (getData), and only those txs travel and
+        // get validated. An id counts as seen once requested, so the copies the other peers announce
+        // are dropped unfetched, and each node validates each tx about once instead of once per peer.
+        // Nothing fetches a seen id again, so a child that arrives before its parent waits among the
+        // orphans instead of being dropped.
+
+        private void announce(Node from, List<String> ids, long sentAt) {
+            relay(from, p -> p.inv(ids, this, sentAt));
+        }
+
+        private synchronized void inv(List<String> ids, Node from, long sentAt) {
+            List<String> wanted = new ArrayList<>(ids.size());
+            for (String id : ids) {
+                if (seen.mightContain(id)) continue;
+                seen.add(id);
+                wanted.add(id);
+            }
+            if (!wanted.isEmpty()) from.send(() -> from.getData(wanted, this, sentAt));
+        }
+
+        // Sends the requested txs that are still in the mempool
+        private void getData(List<String> ids, Node to, long sentAt) {
+            List<Transaction> txs = new ArrayList<>(ids.size());
+            for (String id : ids) {
+                Transaction tx = mempool.get(id);
+                if (tx != null) txs.add(tx);
+            }
+            if (txs.isEmpty()) return;
+            if (txs.size() == 1) to.send(() -> to.receiveTx(txs.get(0), this, sentAt));
+            else to.send(() -> to.receiveTxBatch(txs, this, sentAt));
+        }
+
+        boolean validateTx(Transaction tx) {
+            return fee(tx) >= 0;
+        }
+
+        // The fee tx pays (inputs minus outputs), or -1 if it is invalid: its id must be its own (see
+        // hasOwnId), each input must exist in UTXO or be an output of a mempool tx, and not already be
+        // spent by a mempool tx or by this tx, and outputs may not be negative or exceed inputs
+        long fee(Transaction tx) {
+            byte[] sighash = tx.sighash();
+            if (!hasOwnId(tx, sighash)) return -1;
+            OutpointMap<TXIn> seen = tx.inputs.size() > 1 ? new OutpointMap<>(tx.inputs.size()) : null;
+            long fee = 0;
+            for (int i = 0; i < tx.inputs.size(); i++) {
+                TXIn in = tx.inputs.get(i);
+                TXOut prev = utxo.get(in.prevTxId, in.prevIndex);
+                if (prev == null) prev = unconfirmedOutput(in.prevTxId, in.prevIndex);
+                if (prev == null || mempool.spender(in.prevTxId, in.prevIndex) != null) return -1;
+                if (seen != null && seen.put(in.prevTxId, in.prevIndex, in) != null) return -1;
+                if (!signedBy(sighash, i, in, prev)) return -1;
+                fee += prev.amount;
+            }
+            return fee(tx, fee);
+        }
+
+        // tx.id is the one its content gives (sighash is tx.sighash(), which callers have anyway), and
+        // names no unspent output: a block connecting an id that still has some would overwrite them,
+        // and disconnecting it could not bring them back
+        boolean hasOwnId(Transaction tx, byte[] sighash) {
+            if (tx.id == null || !tx.id.equals(Transaction.idFor(sighash))) return false;
+            for (int i = 0; i < tx.outputs.size(); i++) {
+                if (utxo.contains(tx.id, i)) return false;
+            }
+            return true;
+        }
+
+        // What is left of inputValue after tx's outputs, or -1 if one is negative or they add up to more
+        static long fee(Transaction tx, long inputValue) {
+            long left = inputValue;
+            for (TXOut out : tx.outputs) {
+                if (out.amount < 0) return -1;
+                left -= out.amount;
+            }
+            return left >= 0 ? left : -1;
+        }
+
+        // Input i carries a valid signature by the owner of prev, the output it spends; the cache is
+        // checked first and remembers every signature that passes
+        boolean signedBy(byte[] sighash, int i, TXIn in, TXOut prev) {
+            if (in.sig == null) return false;
+            PublicKey key = Wallet.keys(prev.owner).getPublic();
+            byte[] k = SigCache.key(sighash, i, key, in.sig);
+            if (verified.contains(k)) return true;
+            if (!Wallet.verify(key, sighash, i, in.sig)) return false;
+            verified.add(k);
+            return true;
+        }
+
+        // Verifies a batch's signatures in parallel ahead of admission, so the sequential pass
+        // finds them cached; inputs whose outputs cannot be found yet are left to that pass
+        private void verifyBatch(List<Transaction> txs) {
+            Map<String, Transaction> inBatch = new HashMap<>(txs.size() * 2);
+            for (Transaction tx : txs) inBatch.putIfAbsent(tx.id, tx);
+            txs.parallelStream().filter(tx -> !mempool.contains(tx.id)).forEach(tx -> {
+                byte[] sighash = tx.sighash();
+                for (int i = 0; i < tx.inputs.size(); i++) {
+                    TXIn in = tx.inputs.get(i);
+                    TXOut prev = utxo.get(in.prevTxId, in.prevIndex);
+                    if (prev == null) prev = unconfirmedOutput(in.prevTxId, in.prevIndex);
+                    Transaction parent = prev == null ? inBatch.get(in.prevTxId) : null;
+                    if (parent != null && in.prevIndex >= 0 && in.prevIndex < parent.outputs.size()) prev = parent.outputs.get(in.prevIndex);
+                    if (prev != null) signedBy(sighash, i, in, prev);
+                }
+            });
+        }
+
+        private TXOut unconfirmedOutput(String txId, int index) {
+            Transaction parent = mempool.get(txId);
+            return parent == null || index < 0 || index >= parent.outputs.size() ? null : parent.outputs.get(index);
+        }
+
+        // Validates tx and adds it to the mempool; false if invalid or priced out of a full pool
+        boolean addToMempool(Transaction tx) {
+            validations.incrementAndGet();
+            long fee = fee(tx);
+            return fee >= 0 && mempool.add(tx, fee);
+        }
+
+        Transaction removeFromMempool(String txId) {
+            return mempool.remove(txId);
+        }
+
+        // Apply block atomically
+        synchronized boolean receiveBlock(Block b) {
+            return receiveBlock(b, null, System.nanoTime());
+        }
+
+        private synchronized boolean receiveBlock(Block b, Node from, long sentAt) {
+            if (from != null && !b.prevHash.equals(chain.tipHash())) return receiveForkBlock(b, from, sentAt);
+            if (!connect(b)) return false;
+            if (from != null) BLOCK_LATENCY.record((System.nanoTime() - sentAt) / 1000);
+            // broadcast block to peers
+            relayBlock(from, b, sentAt);
+            log("accepted block " + b + " with txs " + b.txs);
+            return true;
+        }
+
+        // Validates b on top of the tip and applies it, keeping undo data; no relay
+        private boolean connect(Block b) {
+            if (!b.prevHash.equals(chain.tipHash())) {
+                int parent = chain.height(b.prevHash);
+                log("rejected block (does not extend tip; " + (parent < 0 ? "unknown parent)" : "forks at height " + parent + ")"));
+                return false;
+            }
+            // validate block header PoW and that the header commits to these txs
+            if (!isValidPoW(b, chain.bits)) {
+                log("rejected block (bad PoW)");
+                return false;
+            }
+            if (!b.isWellFormed()) {
+                log("rejected block (hash or merkle root mismatch)");
+                return false;
+            }
+            // validate all txs against current UTXO plus the outputs of earlier txs in the block; the
+            // checks only read state, so large blocks run them in parallel, and claims on a shared
+            // set catch two txs spending one output. Nothing is applied until all of them pass.
+            int n = b.txs.size();
+            // a tx listed twice is never valid, and duplicated trailing txs keep the Merkle root of
+            // the list without them (the odd node pairs with itself), so reject any repeat outright
+            Map<String, Integer> position = new HashMap<>(n * 2);
+            for (int t = 0; t < n; t++) {
+                if (position.putIfAbsent(b.txs.get(t).id, t) != null) {
+                    log("rejected block (tx listed twice) - " + b.txs.get(t));
+                    return false;
+                }
+            }
+            ClaimSet claims = new ClaimSet(n);
+            IntStream txs = IntStream.range(0, n);
+            OptionalInt bad = (n >= parallelValidationThreshold ? txs.parallel() : txs)
+                    .filter(t -> !inputsAvailable(b.txs, t, position, claims)).findFirst();
+            if (bad.isPresent()) {
+                log("rejected block (tx has a forged or taken id, consumes missing or duplicate utxo, or pays out more than it spends) - " + b.txs.get(bad.getAsInt()));
+                return false;
+            }
+            // apply: remove spent UTXOs, add outputs
+            BlockUndo u = new BlockUndo(b);
+            int spent = 0;
+            for (int t = 0; t < b.txs.size(); t++) {
+                Transaction tx = b.txs.get(t);
+                removeFromMempool(tx.id); // remove if present
+                for (TXIn in : tx.inputs) {
+                    u.spentTxIds[spent] = in.prevTxId;
+                    u.spentIndexes[spent] = in.prevIndex;
+                    u.spentOuts[spent++] = utxo.remove(in.prevTxId, in.prevIndex);
+                    // evict mempool txs that spent the same output, and their descendants: they can never confirm now
+                    Transaction conflict = mempool.spender(in.prevTxId, in.prevIndex);
+                    if (conflict != null) mempool.removeWithDescendants(conflict.id);
+                }
+                for (int i = 0; i < tx.outputs.size(); i++) {
+                    TXOut out = tx.outputs.get(i);
+                    utxo.put(tx.id, i, out);
+                }
+                u.createdTxIds[t] = tx.id;
+                u.createdOutputs[t] = tx.outputs.size();
+                confirmed.add(tx.id);
+            }
+            utxo.commit(b.hash);
+            // accept block into chain
+            chain.append(b);
+            undo.addLast(u);
+            while (undo.size() > undoDepth) undo.removeFirst();
+            // orphans whose parent this node first sees confirmed
+            if (orphans.size() > 0) adoptOrphans(Arrays.asList(u.createdTxIds), System.nanoTime());
+            return true;
+        }
+
+        // txs[t] has its own id (see hasOwnId), and every input is unspent, or an output of an earlier
+        // tx in the block, is signed by that output's owner, and is claimed by no other input; its
+        // outputs obey the same amount rule as fee(). Signatures seen at admission hit the cache.
+        private boolean inputsAvailable(List<Transaction> txs, int t, Map<String, Integer> position, ClaimSet claims) {
+            Transaction tx = txs.get(t);
+            byte[] sighash = tx.sighash();
+            if (!hasOwnId(tx, sighash)) return false;
+            long inputValue = 0;
+            for (int i = 0; i < tx.inputs.size(); i++) {
+                TXIn in = tx.inputs.get(i);
+                TXOut prev = utxo.get(in.prevTxId, in.prevIndex);
+                Integer from = prev == null ? position.get(in.prevTxId) : null;
+                if (from != null && from < t && in.prevIndex >= 0 && in.prevIndex < txs.get(from).outputs.size()) {
+                    prev = txs.get(from).outputs.get(in.prevIndex);
+                }
+                if (prev == null || !claims.claim(in) || !signedBy(sighash, i, in, prev)) return false;
+                inputValue += prev.amount;
+            }
+            return fee(tx, inputValue) >= 0;
+        }
+
+        // Rolls the tip block back from its undo data and returns it, or null when there is none
+        // (genesis, pruned, or connected by someone else). Its txs go back to the mempool if valid.
+        synchronized Block disconnectTip() {
+            Block b = disconnect();
+            if (b != null) readmit(b);
+            return b;
+        }
+
+        private Block disconnect() {
+            BlockUndo u = undo.peekLast();
+            if (u == null || !u.hash.equals(chain.tipHash())) return null;
+            undo.removeLast();
+            // restore spends before dropping creations, so an output made and spent in the block ends up gone
+            for (int i = u.spentTxIds.length - 1; i >= 0; i--) utxo.put(u.spentTxIds[i], u.spentIndexes[i], u.spentOuts[i]);
+            for (int t = 0; t < u.createdTxIds.length; t++) {
+                for (int i = 0; i < u.createdOutputs[t]; i++) utxo.remove(u.createdTxIds[t], i);
+            }
+            Block b = chain.removeTip();
+            utxo.commit(b.prevHash);
+            return b;
+        }
+
+        // Puts a disconnected block's txs back in the mempool if still valid, then drops mempool
+        // txs left spending its outputs when those now exist nowhere
+        private void readmit(Block b) {
+            for (Transaction tx : b.txs) {
+                addToMempool(tx);
+            }
+            for (Transaction tx : b.txs) {
+                if (mempool.contains(tx.id)) continue;
+                for (int i = 0; i < tx.outputs.size(); i++) {
+                    Transaction orphan = mempool.spender(tx.id, i);
+                    if (orphan != null && !utxo.contains(tx.id, i)) mempool.removeWithDescendants(orphan.id);
+                }
+            }
+        }
+
+        // Reorg: disconnects back to our block forkHash and connects branch, which must build on
+        // it. If a branch block is invalid the old blocks are put back and false is returned.
+        synchronized boolean switchTip(String forkHash, List<Block> branch) {
+            int fork = chain.height(forkHash), depth = chain.height() - fork;
+            if (fork < 0 || depth > undo.size()) return false; // unknown fork point, or deeper than our undo data
+            Deque<Block> old = new ArrayDeque<>();
+            for (int i = 0; i < depth; i++) old.addFirst(disconnect());
+            int connected = 0;
+            for (Block b : branch) {
+                if (!connect(b)) break;
+                connected++;
+            }
+            if (connected < branch.size()) {
+                Deque<Block> undone = new ArrayDeque<>();
+                for (int i = 0; i < connected; i++) undone.addFirst(disconnect());
+                for (Block b : undone) readmit(b); // oldest first, so parents return before children
+                for (Block b : old) connect(b);
+                return false;
+            }
+            for (Block b : old) readmit(b); // whatever the new branch left unspent
+            log("switched tip: -" + depth + " +" + branch.size() + " blocks, now at " + chain.blocks.get(chain.height()));
+            long now = System.nanoTime();
+            for (Block b : branch) relayBlock(null, b, now);
+            return true;
+        }
+
+        // ---- Fork choice ----
+        // A peer's block that does not build on our tip. If its parent is on our chain, its branch is
+        // no longer than ours and we stay. Otherwise it sits on a branch we lack: we send the peer
+        // our block locator and it answers with the blocks since the last one we share, which we
+        // switch to if they make a longer chain. Equal lengths keep the first seen.
+        private boolean receiveForkBlock(Block b, Node from, long sentAt) {
+            if (chain.contains(b.prevHash)) {
+                log("ignored block " + b + " (forks at height " + chain.height(b.prevHash) + ", not longer)");
+                return false;
+            }
+            List<String> locator = locator();
+            from.send(() -> from.getBranch(locator, b.hash, this, sentAt));
+            return false;
+        }
+
+        // Hashes of our blocks at the tip, then further back in doubling steps, ending at genesis
+        private List<String> locator() {
+            List<String> out = new ArrayList<>();
+            for (int h = chain.height(), step = 1; h > 0; h -= step) {
+                out.add(chain.blocks.get(h).hash);
+                if (out.size() >= 10) step *= 2;
+            }
+            out.add(chain.blocks.get(0).hash);
+            return out;
+        }
+
+        // Sends our blocks after the first locator hash we have, up to and including hash
+        private synchronized void getBranch(List<String> locator, String hash, Node to, long sentAt) {
+            int h = chain.height(hash), fork = -1;
+            for (int i = 0; fork < 0 && i < locator.size(); i++) fork = chain.height(locator.get(i));
+            if (h < 0 || fork < 0 || fork >= h) return;
+            String forkHash = chain.blocks.get(fork).hash;
+            List<Block> branch = new ArrayList<>(chain.blocks.subList(fork + 1, h + 1));
+            to.send(() -> to.receiveBranch(forkHash, branch, this, sentAt));
+        }
+
+        private synchronized void receiveBranch(String forkHash, List<Block> branch, Node from, long sentAt) {
+            for (Block b : branch) BLOCK_RELAY_BYTES.add(b.size());
+            // skip what we already have, so the fork point is the last block we share
+            int skip = 0;
+            while (skip < branch.size() && chain.contains(branch.get(skip).hash)) forkHash = branch.get(skip++).hash;
+            int fork = chain.height(forkHash);
+            List<Block> rest = branch.subList(skip, branch.size());
+            if (fork < 0 || rest.isEmpty() || fork + rest.size() <= chain.height()) return;
+            if (switchTip(forkHash, new ArrayList<>(rest))) BLOCK_LATENCY.record((System.nanoTime() - sentAt) / 1000);
+        }
+
+        // helper to avoid relaying a block back and forth once every peer has it
+        private synchronized void receiveBlockIfNew(Block b, Node from, long sentAt) {
+            if (from != null) BLOCK_RELAY_BYTES.add(b.size());
+            if (chain.contains(b.hash)) return;
+            receiveBlock(b, from, sentAt);
+        }
+
+        private void relayBlock(Node from, Block b, long sentAt) {
+            if (!compactBlocks) {
+                relay(from, p -> p.receiveBlockIfNew(b, this, sentAt));
+                return;
+            }
+            CompactBlock compact = new CompactBlock(b);
+            relay(from, p -> p.receiveCompactBlock(compact, this, sentAt));
+        }
+
+        // Rebuilds the block from the mempool, or asks from for the txs that are not there
+        private synchronized void receiveCompactBlock(CompactBlock compact, Node from, long sentAt) {
+            BLOCK_RELAY_BYTES.add(compact.size());
+            if (chain.contains(compact.hash) || partialBlocks.containsKey(compact.hash)) return;
+            Transaction[] txs = compact.match(mempool.txs());
+            List<Integer> missing = new ArrayList<>();
+            for (int i = 0; i < txs.length; i++) if (txs[i] == null) missing.add(i);
+            if (missing.isEmpty()) {
+                completeBlock(compact, txs, from, sentAt);
+                return;
+            }
+            partialBlocks.put(compact.hash, new PartialBlock(compact, txs));
+            BLOCK_RELAY_BYTES.add(Sha256.LENGTH + 4L * missing.size());
+            from.send(() -> from.getBlockTxs(compact.hash, missing, this, sentAt));
+        }
+
+        // Sends the requested txs of a block on our chain
+        private synchronized void getBlockTxs(String hash, List<Integer> indexes, Node to, long sentAt) {
+            Block b = chain.get(hash);
+            if (b == null) return;
+            List<Transaction> txs = new ArrayList<>(indexes.size());
+            for (int i : indexes) txs.add(b.txs.get(i));
+            to.send(() -> to.receiveBlockTxs(hash, indexes, txs, this, sentAt));
+        }
+
+        private synchronized void receiveBlockTxs(String hash, List<Integer> indexes, List<Transaction> txs, Node from, long sentAt) {
+            for (Transaction tx : txs) BLOCK_RELAY_BYTES.add(tx.size());
+            PartialBlock partial = partialBlocks.remove(hash);
+            if (partial == null || chain.contains(hash)) return;
+            for (int i = 0; i < indexes.size(); i++) partial.txs[indexes.get(i)] = txs.get(i);
+            completeBlock(partial.compact, partial.txs, from, sentAt);
+        }
+
+        // Connects a rebuilt block; if a short id picked the wrong tx, falls back to the full block
+        private void completeBlock(CompactBlock compact, Transaction[] txs, Node from, long sentAt) {
+            Block b = compact.toBlock(txs);
+            if (b != null) {
+                receiveBlock(b, from, sentAt);
+                return;
+            }
+            log("compact block " + compact.hash.substring(0, 6) + " did not rebuild, fetching it in full");
+            from.send(() -> from.sendBlock(compact.hash, this, sentAt));
+        }
+
+        private synchronized void sendBlock(String hash, Node to, long sentAt) {
+            Block b = chain.get(hash);
+            if (b != null) to.send(() -> to.receiveBlockIfNew(b, this, sentAt));
+        }
+
+        // True once the node has no message queued or running
+        boolean idle() { return pending.get() == 0; }
+
+        // Stops the worker after the queued messages and closes the UTXO set
+        void close() throws IOException, InterruptedException {
+            inbox.shutdown();
+            inbox.awaitTermination(1, TimeUnit.MINUTES);
+            utxo.close();
+        }
+
+        // Workers that do not keep the JVM alive, named after the node
+        static ThreadFactory daemonThreads(String name) {
+            return r -> {
+                Thread t = new Thread(r, "node-" + name);
+                t.setDaemon(true);
+                return t;
+            };
+        }
+    }
+
+    // Waits until no node has a message queued or running; a pass that sees every inbox empty only
+    // counts if no message finished meanwhile, since that one may have queued more
+    static void awaitQuiet(Collection<Node> nodes) throws InterruptedException {
+        while (true) {
+            long before = 0, after = 0;
+            boolean quiet = true;
+            for (Node n : nodes) before += n.handled.get();
+            for (Node n : nodes) quiet &= n.idle();
+            for (Node n : nodes) after += n.handled.get();
+            if (quiet && before == after) return;
+            Thread.sleep(10);
+        }
+    }
+
+    // ---- Miner (as separate actor) ----
+    static class Miner implements Runnable {
+        String name; Node node; volatile boolean stop=false;
+        MiningStats stats = new MiningStats(); // this miner's own; share one to total several
+        int maxBlockTxs = 1000;
+        Miner(String name, Node node){ this.name=name; this.node=node; }
+        public void run() {
+            try {
+                while(!stop) {
+                    // take the best-paying mempool transactions (avoid conflicts)
+                    List<Transaction> selected = selectNonConflicting(node.mempool.top(maxBlockTxs));
+                    Block b = new Block(node.chain.tipHash(), node.chain.bits); // tip first; see Chain.tip
+                    b.txs.addAll(selected);
+                    b.commitTxs();
+                    // PoW: find a hash at or below the chain's current target
+                    byte[] target = Target.expand(b.bits);
+                    long start = System.nanoTime(), tried = 1;
+                    boolean stale = false;
+                    while (!Target.meets(b.hashBytes, 0, target) && !stop) {
+                        b.nonce++;
+                        b.hashHeader();
+                        if ((++tried & (MiningStats.FLUSH_EVERY - 1)) == 0) {
+                            stats.addHashes(MiningStats.FLUSH_EVERY);
+                            // someone else extended the chain: this template can no longer win
+                            if (!b.prevHash.equals(node.chain.tipHash())) { stale = true; break; }
+                        }
+                        // tiny sleep to avoid busy-loop hogging
+                        if (b.nonce % 10000 == 0) Thread.yield();
+                    }
+                    stats.addHashes(tried & (MiningStats.FLUSH_EVERY - 1));
+                    if (stop || stale) {
+                        stats.workAbandoned(tried);
+                        if (stop) break;
+                        continue;
+                    }
+                    stats.blockFound(tried, System.nanoTime() - start);
+                    b.recalc();
+                    System.out.println("[" + name + "] mined block " + b + " with txs " + b.txs);
+                    // broadcast block to node's network (simulate)
+                    if (!node.receiveBlock(b)) stats.blockStale();
+                    // wait a bit before next mining round
+                    Thread.sleep(200);
+                }
+            } catch (Exception e){ e.printStackTrace(); }
+        }
+        private List<Transaction> selectNonConflicting(List<Transaction> pool) {
+            List<Transaction> out = new ArrayList<>();
+            OutpointMap<TXIn> used = new OutpointMap<>();
+            for (Transaction tx : pool) {
+                boolean ok = true;
+                for (TXIn in : tx.inputs) {
+                    if (used.put(in.prevTxId, in.prevIndex, in) != null) { ok = false; break; }
+                }
+                if (ok) out.add(tx);
+            }
+            return out;
+        }
+    }
+
+    // ---- Utilities ----
+    static String sha256(String data) {
+        return Sha256.hex(data);
+    }
+    // Nodes only accept blocks mined against the target their chain expects next
+    static boolean isValidPoW(Block b, int expectedBits) {
+        return b.bits == expectedBits && Target.meets(b.hash, b.bits);
+    }
+
+    // ---- Network ----
+    // Many nodes in one JVM: every node's inbox worker and every miner is a virtual thread, so an
+    // idle node costs a parked continuation instead of an OS thread, and all nodes fork one shared
+    // base UTXO state. With a small seen-set per node 10,000+ nodes fit in a default-sized heap.
+    static final class Network {
+        final List<Node> nodes = new ArrayList<>();
+        final List<Miner> miners = new ArrayList<>();
+        private final List<Thread> minerThreads = new ArrayList<>();
+        // One verified-signature cache for all nodes: each signature is checked once per run rather
+        // than once per node, so runs are bound by propagation, not by Ed25519
+        final SigCache verified = new SigCache(1 << 20);
+        final MiningStats stats = new MiningStats(); // all miners of the network
+        int links;
+
+        // n quiet nodes on a ring, plus random links until the average degree reaches degree: the
+        // ring keeps the graph connected and the random links keep its diameter near log n
+        static Network build(int n, int degree, Block genesis, SharedUtxoSet base, long seed) {
+            Network net = new Network();
+            for (int i = 0; i < n; i++) {
+                String name = "N" + i;
+                Node node = new Node(name, new Chain(genesis), base.fork(), Thread.ofVirtual().name("node-" + name).factory(), net.verified, 1 << 12);
+                node.verbose = false;
+                net.nodes.add(node);
+            }
+            for (int i = 0; n > 1 && i < n; i++) net.link(net.nodes.get(i), net.nodes.get((i + 1) % n));
+            long target = (long) n * Math.min(degree, n - 1) / 2;
+            Random rnd = new Random(seed);
+            for (long tries = 0; net.links < target && tries < 20 * target; tries++) {
+                net.link(net.nodes.get(rnd.nextInt(n)), net.nodes.get(rnd.nextInt(n)));
+            }
+            return net;
+        }
+
+        private void link(Node a, Node b) {
+            if (a == b || a.peers.contains(b)) return;
+            a.connect(b);
+            b.connect(a);
+            links++;
+        }
+
+        // Starts count miners on nodes spread over the network, each on a virtual thread
+        void startMiners(int count) {
+            for (int i = 0; i < count; i++) {
+                Miner m = new Miner("Miner" + i, nodes.get((int) ((long) i * nodes.size() / count)));
+                m.stats = stats;
+                miners.add(m);
+                minerThreads.add(Thread.ofVirtual().name(m.name).start(m));
+            }
+        }
+
+        void stopMiners() throws InterruptedException {
+            for (Miner m : miners) m.stop = true;
+            for (Thread t : minerThreads) t.join();
+        }
+
+        // True once every node has the same tip and its UTXO set is committed at that tip, so all UTXO
+        // sets are equal. Mempools are left out: a tx that confirms before a peer fetches it is never
+        // fetched, and a reorg only returns txs to the mempools of nodes that had the old branch.
+        boolean converged() {
+            String tip = null;
+            for (Node n : nodes) {
+                synchronized (n) {
+                    String t = n.chain.tipHash();
+                    if (tip == null) tip = t;
+                    if (!t.equals(tip) || !t.equals(n.utxo.tip())) return false;
+                }
+            }
+            return true;
+        }
+
+        // One line on how far the network agrees: nodes on the highest tip, distinct tips, and the
+        // spread of UTXO set and mempool sizes
+        String status() {
+            Map<String, Integer> tips = new HashMap<>();
+            int best = -1, minUtxo = Integer.MAX_VALUE, maxUtxo = 0, minPool = Integer.MAX_VALUE, maxPool = 0;
+            String bestTip = null;
+            for (Node n : nodes) {
+                synchronized (n) {
+                    String t = n.chain.tipHash();
+                    tips.merge(t, 1, Integer::sum);
+                    if (n.chain.height() > best) { best = n.chain.height(); bestTip = t; }
+                    minUtxo = Math.min(minUtxo, n.utxo.size()); maxUtxo = Math.max(maxUtxo, n.utxo.size());
+                    minPool = Math.min(minPool, n.mempool.size()); maxPool = Math.max(maxPool, n.mempool.size());
+                }
+            }
+            return String.format("height %d: %d/%d nodes at tip, %d distinct tips; utxos %d..%d, mempool %d..%d",
+                    best, tips.getOrDefault(bestTip, 0), nodes.size(), tips.size(), minUtxo, maxUtxo, minPool, maxPool);
+        }
+
+        void close() throws IOException, InterruptedException {
+            for (Node n : nodes) n.close();
+        }
+    }
+
+    // --nodes N [--degree D] [--miners M] [--txs T] [--seconds S]: builds a network of N nodes, mines
+    // on M of them for S seconds while T signed txs enter at random nodes, printing how far the
+    // nodes agree each second, then waits for them to converge
+    static void runNetwork(Map<String, Integer> opts) throws Exception {
+        int n = opts.getOrDefault("nodes", 10_000), degree = opts.getOrDefault("degree", 8);
+        int minerCount = opts.getOrDefault("miners", 2), txCount = opts.getOrDefault("txs", 20), seconds = opts.getOrDefault("seconds", 10);
+        Block genesis = Block.genesis();
+        SharedUtxoSet base = new SharedUtxoSet();
+        for (int i = 0; i < txCount; i++) {
+            TXOut out = new TXOut(); out.owner="Alice"; out.amount=100;
+            base.put("genesis" + i, 0, out);
+        }
+        base.commit(genesis.hash);
+
+        long start = System.nanoTime();
+        Network net = Network.build(n, degree, genesis, base, 42);
+        Runtime rt = Runtime.getRuntime();
+        System.out.printf("Built %d nodes with %d links in %d ms, heap used %d MB%n",
+                n, net.links, (System.nanoTime() - start) / 1_000_000, (rt.totalMemory() - rt.freeMemory()) >> 20);
+
+        net.startMiners(minerCount);
+        Random rnd = new Random(7);
+        long end = System.currentTimeMillis() + seconds * 1000L, nextStatus = 0;
+        int sent = 0;
+        while (System.currentTimeMillis() < end) {
+            long now = System.currentTimeMillis();
+            // spread the txs over the first half of the run, so the miners can still confirm the last ones
+            if (sent < txCount && now >= end - seconds * 1000L + (long) sent * seconds * 500L / txCount) {
+                Transaction tx = new Transaction();
+                TXIn in = new TXIn(); in.prevTxId="genesis" + sent; in.prevIndex=0; in.owner="Alice";
+                tx.inputs.add(in);
+                TXOut out = new TXOut(); out.owner="Bob"; out.amount=99;
+                tx.outputs.add(out);
+                Wallet.sign(tx);
+                net.nodes.get(rnd.nextInt(n)).receiveTx(tx);
+                sent++;
+            }
+            if (now >= nextStatus) {
+                System.out.println(net.status());
+                nextStatus = now + 1000;
+            }
+            Thread.sleep(10);
+        }
+        net.stopMiners();
+        long stopped = System.nanoTime();
+        awaitQuiet(net.nodes);
+        boolean converged = net.converged();
+        System.out.printf("Miners stopped; network quiet after %d ms, %s%n", (System.nanoTime() - stopped) / 1_000_000, converged ? "converged" : "NOT converged");
+        System.out.println(net.status());
+        System.out.println("Propagation latency (us): txs " + TX_LATENCY.summary() + "; blocks " + BLOCK_LATENCY.summary());
+        System.out.println("Block relay bytes: " + BLOCK_RELAY_BYTES.sum());
+        System.out.println("Mining stats: " + net.stats.snapshot());
+        net.close();
+    }
+
+    // ---- Simulation ----
+    static Node newNode(String name, Chain chain, SharedUtxoSet base, String[] args) throws IOException {
+        if (args.length == 0) return new Node(name, chain, base.fork());
+        Path dir = Paths.get(args[0], name);
+        MappedUtxoSet utxo = MappedUtxoSet.open(dir);
+        HeaderLog.attach(chain, dir.resolve("headers"));
+        if (utxo.tip() != null && chain.contains(utxo.tip())) {
+            // a crash between a disconnect's UTXO commit and its header removal leaves the log a block ahead
+            while (!chain.tipHash().equals(utxo.tip())) chain.removeTip();
+            System.out.println("[" + name + "] reopened " + utxo.size() + " UTXOs at height " + chain.height() + ", tip " + utxo.tip());
+            return new Node(name, chain, utxo);
+        }
+        // state left at a tip the stored headers do not reach belongs to some other chain
+        if (utxo.tip() != null) System.out.println("[" + name + "] stored UTXOs at tip " + utxo.tip() + " are not on the stored chain; rebuilding");
+        while (chain.height() > 0) chain.removeTip();
+        utxo.clear();
+        for (String key : base.keys()) {
+            int colon = key.lastIndexOf(':');
+            String txId = key.substring(0, colon);
+            int index = Integer.parseInt(key.substring(colon + 1));
+            utxo.put(txId, index, base.get(txId, index));
+        }
+        utxo.commit(base.tip());
+        return new Node(name, chain, utxo);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].startsWith("--")) {
+            Map<String, Integer> opts = new HashMap<>();
+            for (int i = 0; i + 1 < args.length; i += 2) opts.put(args[i].substring(2), Integer.parseInt(args[i + 1]));
+            runNetwork(opts);
+            return;
+        }
+        // create genesis block and chain
+        Block genesis = Block.genesis();
+        Chain chain1 = new Chain(genesis);
+
+        // Give an initial UTXO to user "Alice": from genesis we pretend a tx id "genesis" index 0
+        TXOut out = new TXOut(); out.owner="Alice"; out.amount=100;
+        SharedUtxoSet base = new SharedUtxoSet();
+        base.put("genesis", 0, out);
+        base.commit(genesis.hash);
+
+        // create network nodes, each with its own chain and forked from the shared base state; with a
+        // directory argument each keeps its UTXO set and chain headers there and picks both up on the next run
+        Node A = newNode("A", chain1, base, args);
+        Node B = newNode("B", new Chain(genesis), base, args);
+        Node C = newNode("C", new Chain(genesis), base, args);
+
+        // connect peers (fully connected for simplicity)
+        A.connect(B); A.connect(C);
+        B.connect(A); B.connect(C);
+        C.connect(A); C.connect(B);
+
+        // start a miner on node A
+        Miner minerA = new Miner("MinerA", A); // mines at the chain's current target
+        Thread minerThread = new Thread(minerA);
+        minerThread.start();
+
+        // Create two conflicting transactions that both try to spend the same genesis UTXO
+        Transaction tx1 = new Transaction(); // Alice -> Bob
+        TXIn in1 = new TXIn(); in1.prevTxId="genesis"; in1.prevIndex=0; in1.owner="Alice";
+        tx1.inputs.add(in1);
+        TXOut tx1out = new TXOut(); tx1out.owner="Bob"; tx1out.amount=100;
+        tx1.outputs.add(tx1out);
+        Wallet.sign(tx1);
+
+        Transaction tx2 = new Transaction(); // Alice -> Mallory (double-spend attempt)
+        TXIn in2 = new TXIn(); in2.prevTxId="genesis"; in2.prevIndex=0; in2.owner="Alice";
+        tx2.inputs.add(in2);
+        TXOut tx2out = new TXOut(); tx2out.owner="Mallory"; tx2out.amount=100;
+        tx2.outputs.add(tx2out);
+        Wallet.sign(tx2);
+
+        System.out.println("\n--- Broadcasting conflicting txs from different entrypoints ---");
+        // Broadcast tx1 to node B (propagates), and tx2 to node C (propagates) to simulate network race
+        B.receiveTx(tx1);
+        C.receiveTx(tx2);
+
+        // let miner run for a short while to include whichever tx it sees first
+        Thread.sleep(2000);
+
+        // stop miner
+        minerA.stop = true;
+        minerThread.join();
+        awaitQuiet(List.of(A, B, C));
+
+        // Print final UTXO sets
+        System.out.println("\n--- Final UTXO sets ---");
+        System.out.println("Node A UTXO keys: " + A.utxo.keys());
+        System.out.println("Node B UTXO keys: " + B.utxo.keys());
+        System.out.println("Node C UTXO keys: " + C.utxo.keys());
+
+        // Show whether both txs ended up in chain
+        System.out.println("\nChain blocks:");
+        for (Block b : A.chain.blocks) {
+            System.out.println(" - " + b + " txs:" + b.txs);
+        }
+
+        System.out.println("\nMempools:");
+        System.out.println("A mempool: " + A.mempool.ids());
+        System.out.println("B mempool: " + B.mempool.ids());
+        System.out.println("C mempool: " + C.mempool.ids());
+
+        System.out.println("\nMining stats: " + minerA.stats.snapshot());
+        System.out.println("Propagation latency (us): txs " + TX_LATENCY.summary() + "; blocks " + BLOCK_LATENCY.summary());
+        System.out.println("Block relay bytes: " + BLOCK_RELAY_BYTES.sum());
+
+        for (Node n : List.of(A, B, C)) n.close();
+
+        System.out.println("\nSimulation complete.");
+    }
+}
@@ -0,0 +1,73 @@
+import java.math.BigInteger;
+
+// Proof-of-work target in Bitcoin's compact "bits" form: the top byte is the target's length
+// in bytes, the low 23 bits its leading digits. A hash meets the target when, read as a
+// 256-bit big-endian number, it is <= the target. Work scales in any ratio, not 16x steps.
+public final class Target {
+    private static final BigInteger MAX = BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE);
+
+    private Target() {}
+
+    public static BigInteger decode(int bits) {
+        int size = bits >>> 24;
+        BigInteger mantissa = BigInteger.valueOf(bits & 0x007fffff);
+        return size <= 3 ? mantissa.shiftRight(8 * (3 - size)) : mantissa.shiftLeft(8 * (size - 3));
+    }
+
+    public static int encode(BigInteger target) {
+        if (target.signum() <= 0) return 0;
+        int size = (target.bitLength() + 7) / 8;
+        long mantissa = size <= 3 ? target.longValue() << (8 * (3 - size)) : target.shiftRight(8 * (size - 3)).longValue();
+        // the 0x00800000 bit would read as a sign, so spill into one more byte
+        if ((mantissa & 0x00800000L) != 0) {
+            mantissa >>>= 8;
+            size++;
+        }
+        return (size << 24) | (int) mantissa;
+    }
+
+    // The 32-byte big-endian target for bits, for comparing against raw hashes
+    public static byte[] expand(int bits) {
+        BigInteger target = decode(bits).min(MAX);
+        byte[] raw = target.toByteArray();
+        byte[] out = new byte[32];
+        int n = Math.min(raw.length, 32);
+        System.arraycopy(raw, raw.length - n, out, 32 - n, n);
+        return out;
+    }
+
+    // Same work as a hash starting with `zeros` hex zeros, i.e. target = 2^(256 - 4*zeros) - 1
+    public static int fromLeadingZeros(int zeros) {
+        return encode(BigInteger.ONE.shiftLeft(256 - 4 * zeros).subtract(BigInteger.ONE));
+    }
+
+    public static boolean meets(byte[] hash, int off, byte[] target) {
+        for (int i = 0; i < 32; i++) {
+            int h = hash[off + i] & 0xff, t = target[i] & 0xff;
+            if (h != t) return h < t;
+        }
+        return true;
+    }
+
+    // Same comparison for a 64-char hex hash, without decoding it
+    public static boolean meets(CharSequence hexHash, byte[] target) {
+        for (int i = 0; i < 64; i++) {
+            int h = Character.digit(hexHash.charAt(i), 16);
+            int t = (i & 1) == 0 ? (target[i >>> 1] & 0xf0) >>> 4 : target[i >>> 1] & 0x0f;
+            if (h != t) return h < t;
+        }
+        return true;
+    }
+
+    public static boolean meets(CharSequence hexHash, int bits) {
+        return meets(hexHash, expand(bits));
+    }
+
+    // Scales the target by actual/expected time, clamped to 4x either way like Bitcoin
+    public static int retarget(int bits, long actualMillis, long expectedMillis) {
+        long actual = Math.max(expectedMillis / 4, Math.min(actualMillis, expectedMillis * 4));
+        BigInteger next = decode(bits).multiply(BigInteger.valueOf(Math.max(actual, 1)))
+                .divide(BigInteger.valueOf(Math.max(expectedMillis, 1)));
+        return encode(next.min(MAX).max(BigInteger.ONE));
+    }
+}
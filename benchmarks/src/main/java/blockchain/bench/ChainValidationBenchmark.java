@@ -0,0 +1,84 @@
+package blockchain.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Blockchain.isChainValid over chains mined at the easiest target with retargeting off, so
+ * 10^6 blocks build in seconds yet every block passes the audit's target checks.
+ * fullAudit rehashes every block, routineCheck only what lies above the watermark.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class ChainValidationBenchmark {
+
+    private static final int EASIEST_BITS = 0x2100ffff; // Target.fromLeadingZeros(0): any hash but a few meets it
+
+    @Param({"10000", "100000", "1000000"})
+    public int blocks;
+
+    private int initialBits, retargetInterval;
+
+    @Setup
+    public void buildChain() throws Throwable {
+        initialBits = (int) Core.INITIAL_BITS.invokeExact();
+        retargetInterval = (int) Core.RETARGET_INTERVAL.invokeExact();
+        Core.SET_INITIAL_BITS.invokeExact(EASIEST_BITS);
+        Core.SET_RETARGET_INTERVAL.invokeExact(Integer.MAX_VALUE);
+        List<Object> chain = chain();
+        chain.clear();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // mining logs every block
+        try {
+            String prev = "0";
+            for (int i = 0; i < blocks; i++) {
+                Object block = Core.NEW_BLOCK.invoke("block " + i, prev);
+                Core.ADD_BLOCK.invoke(block);
+                prev = (String) Core.BLOCK_HASH.invoke(block);
+            }
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    @TearDown
+    public void clearChain() throws Throwable {
+        chain().clear();
+        Core.SET_INITIAL_BITS.invokeExact(initialBits);
+        Core.SET_RETARGET_INTERVAL.invokeExact(retargetInterval);
+    }
+
+    @Benchmark
+    public boolean fullAudit() throws Throwable {
+        return (boolean) Core.IS_CHAIN_VALID.invokeExact(true);
+    }
+
+    @Benchmark
+    public boolean routineCheck() throws Throwable {
+        return (boolean) Core.IS_CHAIN_VALID.invokeExact(false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> chain() throws Throwable {
+        return (List<Object>) Core.CHAIN.invoke();
+    }
+}
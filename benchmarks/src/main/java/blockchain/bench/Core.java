@@ -0,0 +1,152 @@
+package blockchain.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+/**
+ * Bridge to the core classes. They live in the default package, which code in a named
+ * package cannot import and which JMH will not generate benchmarks for, so they are
+ * resolved by name once. The handles are static finals, so the JIT folds them and a
+ * call costs the same as a direct one.
+ */
+final class Core {
+    static final MethodHandle APPLY_SHA256;   // (String) String
+    static final MethodHandle SIM_SHA256;     // (String) String
+    static final MethodHandle NEW_BLOCK;      // (String data, String previousHash) Block
+    static final MethodHandle MINE_BLOCK;     // (Block, int difficulty) void
+    static final MethodHandle BLOCK_HASH;     // (Block) String
+    static final MethodHandle CHAIN;          // () ArrayList<Block>
+    static final MethodHandle ADD_BLOCK;      // (Block) void, mined at Blockchain.nextBits()
+    static final MethodHandle INITIAL_BITS, SET_INITIAL_BITS;           // () int, (int) void
+    static final MethodHandle RETARGET_INTERVAL, SET_RETARGET_INTERVAL; // () int, (int) void
+    static final MethodHandle IS_CHAIN_VALID; // (boolean fullAudit) boolean
+    static final MethodHandle VALIDATE_TX;    // (Node, Transaction) boolean
+    static final MethodHandle ADD_TO_MEMPOOL; // (Node, Transaction) boolean
+    static final MethodHandle REMOVE_FROM_MEMPOOL; // (Node, String txId) Transaction
+
+    private static final MethodHandle NEW_SIM_BLOCK, NEW_SIM_CHAIN, NEW_NODE, NODE_UTXO;
+    private static final MethodHandle NEW_TX, TX_ID, TX_INPUTS, TX_OUTPUTS, SIGN;
+    private static final MethodHandle NEW_TXIN, TXIN_PREV_TX, TXIN_PREV_INDEX, TXIN_OWNER;
+    private static final MethodHandle NEW_TXOUT, TXOUT_OWNER, TXOUT_AMOUNT, UTXO_PUT;
+
+    static {
+        try {
+            Class<?> block = Class.forName("Block");
+            Class<?> blockchain = Class.forName("Blockchain");
+            Class<?> sim = Class.forName("SimpleNetworkSim");
+            Class<?> simBlock = Class.forName("SimpleNetworkSim$Block");
+            Class<?> chain = Class.forName("SimpleNetworkSim$Chain");
+            Class<?> node = Class.forName("SimpleNetworkSim$Node");
+            Class<?> tx = Class.forName("SimpleNetworkSim$Transaction");
+            Class<?> txIn = Class.forName("SimpleNetworkSim$TXIn");
+            Class<?> txOut = Class.forName("SimpleNetworkSim$TXOut");
+            Class<?> utxoSet = Class.forName("SimpleNetworkSim$UtxoSet");
+            Class<?> wallet = Class.forName("SimpleNetworkSim$Wallet");
+
+            APPLY_SHA256 = lookup(block).findStatic(block, "applySha256", MethodType.methodType(String.class, String.class));
+            SIM_SHA256 = lookup(sim).findStatic(sim, "sha256", MethodType.methodType(String.class, String.class));
+            NEW_BLOCK = erase(lookup(block).findConstructor(block, MethodType.methodType(void.class, String.class, String.class)));
+            MINE_BLOCK = erase(lookup(block).findVirtual(block, "mineBlock", MethodType.methodType(void.class, int.class)));
+            BLOCK_HASH = erase(lookup(block).findGetter(block, "hash", String.class));
+            CHAIN = erase(lookup(blockchain).findStaticGetter(blockchain, "chain", java.util.ArrayList.class));
+            ADD_BLOCK = erase(lookup(blockchain).findStatic(blockchain, "addBlock", MethodType.methodType(void.class, block)));
+            INITIAL_BITS = lookup(blockchain).findStaticGetter(blockchain, "initialBits", int.class);
+            SET_INITIAL_BITS = lookup(blockchain).findStaticSetter(blockchain, "initialBits", int.class);
+            RETARGET_INTERVAL = lookup(blockchain).findStaticGetter(blockchain, "retargetInterval", int.class);
+            SET_RETARGET_INTERVAL = lookup(blockchain).findStaticSetter(blockchain, "retargetInterval", int.class);
+            IS_CHAIN_VALID = lookup(blockchain).findStatic(blockchain, "isChainValid", MethodType.methodType(boolean.class, boolean.class));
+            VALIDATE_TX = erase(lookup(node).findVirtual(node, "validateTx", MethodType.methodType(boolean.class, tx)));
+            ADD_TO_MEMPOOL = erase(lookup(node).findVirtual(node, "addToMempool", MethodType.methodType(boolean.class, tx)));
+            REMOVE_FROM_MEMPOOL = erase(lookup(node).findVirtual(node, "removeFromMempool", MethodType.methodType(tx, String.class)));
+
+            NEW_SIM_BLOCK = erase(lookup(simBlock).findConstructor(simBlock, MethodType.methodType(void.class, String.class)));
+            NEW_SIM_CHAIN = erase(lookup(chain).findConstructor(chain, MethodType.methodType(void.class, simBlock)));
+            NEW_NODE = erase(lookup(node).findConstructor(node, MethodType.methodType(void.class, String.class, chain)));
+            NODE_UTXO = erase(lookup(node).findGetter(node, "utxo", utxoSet));
+
+            NEW_TX = erase(lookup(tx).findConstructor(tx, MethodType.methodType(void.class)));
+            TX_ID = erase(lookup(tx).findGetter(tx, "id", String.class));
+            TX_INPUTS = erase(lookup(tx).findGetter(tx, "inputs", List.class));
+            TX_OUTPUTS = erase(lookup(tx).findGetter(tx, "outputs", List.class));
+            SIGN = erase(lookup(wallet).findStatic(wallet, "sign", MethodType.methodType(void.class, tx)));
+
+            NEW_TXIN = erase(lookup(txIn).findConstructor(txIn, MethodType.methodType(void.class)));
+            TXIN_PREV_TX = erase(lookup(txIn).findSetter(txIn, "prevTxId", String.class));
+            TXIN_PREV_INDEX = erase(lookup(txIn).findSetter(txIn, "prevIndex", int.class));
+            TXIN_OWNER = erase(lookup(txIn).findSetter(txIn, "owner", String.class));
+
+            NEW_TXOUT = erase(lookup(txOut).findConstructor(txOut, MethodType.methodType(void.class)));
+            TXOUT_OWNER = erase(lookup(txOut).findSetter(txOut, "owner", String.class));
+            TXOUT_AMOUNT = erase(lookup(txOut).findSetter(txOut, "amount", int.class));
+            UTXO_PUT = erase(lookup(utxoSet).findVirtual(utxoSet, "put",
+                    MethodType.methodType(void.class, String.class, int.class, txOut)));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Core() {}
+
+    // ---- Simulation fixtures ----
+
+    static Object newNode(String name) throws Throwable {
+        Object genesis = NEW_SIM_BLOCK.invoke("0");
+        Object chain = NEW_SIM_CHAIN.invoke(genesis);
+        return NEW_NODE.invoke(name, chain);
+    }
+
+    // A one-in, one-out transaction spending prevTxId:prevIndex, signed by owner
+    static Object newTx(String prevTxId, int prevIndex, String owner, String to, int amount) throws Throwable {
+        Object tx = NEW_TX.invoke();
+        Object in = NEW_TXIN.invoke();
+        TXIN_PREV_TX.invoke(in, prevTxId);
+        TXIN_PREV_INDEX.invoke(in, prevIndex);
+        TXIN_OWNER.invoke(in, owner);
+        inputs(tx).add(in);
+        outputs(tx).add(newTxOut(to, amount));
+        SIGN.invoke(tx);
+        return tx;
+    }
+
+    static void fund(Object node, String txId, int index, String owner, int amount) throws Throwable {
+        Object utxo = NODE_UTXO.invoke(node);
+        UTXO_PUT.invoke(utxo, txId, index, newTxOut(owner, amount));
+    }
+
+    // False if the node refused it; tx ids are content hashes, so a tx identical to one in the pool is refused
+    static boolean addToMempool(Object node, Object tx) throws Throwable {
+        return (boolean) ADD_TO_MEMPOOL.invokeExact(node, tx);
+    }
+
+    static String txId(Object tx) throws Throwable {
+        return (String) TX_ID.invoke(tx);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> inputs(Object tx) throws Throwable {
+        return (List<Object>) TX_INPUTS.invoke(tx);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> outputs(Object tx) throws Throwable {
+        return (List<Object>) TX_OUTPUTS.invoke(tx);
+    }
+
+    private static Object newTxOut(String owner, int amount) throws Throwable {
+        Object out = NEW_TXOUT.invoke();
+        TXOUT_OWNER.invoke(out, owner);
+        TXOUT_AMOUNT.invoke(out, amount);
+        return out;
+    }
+
+    private static MethodHandles.Lookup lookup(Class<?> c) throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(c, MethodHandles.lookup());
+    }
+
+    // Default-package types cannot be named here, so reference types are erased to Object
+    private static MethodHandle erase(MethodHandle mh) {
+        return mh.asType(mh.type().erase());
+    }
+}
@@ -0,0 +1,47 @@
+package blockchain.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** String-in/hex-out SHA-256 as used by Block and SimpleNetworkSim. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HashBenchmark {
+
+    @Param({"64", "1024"})
+    public int length;
+
+    private String input;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) sb.append((char) ('a' + i % 26));
+        input = sb.toString();
+    }
+
+    @Benchmark
+    public String blockApplySha256() throws Throwable {
+        return (String) Core.APPLY_SHA256.invokeExact(input);
+    }
+
+    @Benchmark
+    public String simSha256() throws Throwable {
+        return (String) Core.SIM_SHA256.invokeExact(input);
+    }
+}
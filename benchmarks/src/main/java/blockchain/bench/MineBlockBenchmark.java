@@ -0,0 +1,43 @@
+package blockchain.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Block.mineBlock on a fresh block per call; each block has a new timestamp, so work varies. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class MineBlockBenchmark {
+
+    @Param({"1", "2", "3", "4", "5"})
+    public int difficulty;
+
+    private Object block;
+    private int seq;
+
+    @Setup(Level.Invocation)
+    public void newBlock() throws Throwable {
+        block = Core.NEW_BLOCK.invoke("block " + seq++, "0");
+    }
+
+    @Benchmark
+    public Object mineBlock() throws Throwable {
+        Core.MINE_BLOCK.invokeExact(block, difficulty);
+        return block;
+    }
+}
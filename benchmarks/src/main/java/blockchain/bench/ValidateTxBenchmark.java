@@ -0,0 +1,62 @@
+package blockchain.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Node.validateTx for a transaction that spends a fresh output, against a mempool of
+ * `mempoolSize` unrelated transactions. Nothing conflicts, so every check runs to the end;
+ * the candidate's signature is verified once and then found in the node's signature cache.
+ * admitTx validates and adds the transaction to the fee-ordered mempool and takes it out
+ * again, so the pool stays at its size; both should stay flat (admitTx: log) in mempoolSize.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ValidateTxBenchmark {
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int mempoolSize;
+
+    private Object node;
+    private Object candidate;
+    private String candidateId;
+
+    @Setup
+    public void setup() throws Throwable {
+        node = Core.newNode("bench");
+        for (int i = 0; i < mempoolSize; i++) {
+            String funding = "fund" + i;
+            Core.fund(node, funding, 0, "Alice", 1);
+            Core.addToMempool(node, Core.newTx(funding, 0, "Alice", "Bob", 1));
+        }
+        Core.fund(node, "candidate", 0, "Alice", 1);
+        candidate = Core.newTx("candidate", 0, "Alice", "Bob", 1);
+        candidateId = Core.txId(candidate);
+    }
+
+    @Benchmark
+    public boolean validateTx() throws Throwable {
+        return (boolean) Core.VALIDATE_TX.invokeExact(node, candidate);
+    }
+
+    @Benchmark
+    public Object admitTx() throws Throwable {
+        if (!(boolean) Core.ADD_TO_MEMPOOL.invokeExact(node, candidate)) throw new IllegalStateException("candidate rejected");
+        return (Object) Core.REMOVE_FROM_MEMPOOL.invokeExact(node, (Object) candidateId);
+    }
+}
@@ -0,0 +1,78 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import org.junit.jupiter.api.Test;
+
+class BlockchainTest {
+    private static final int INTERVAL = 4;
+
+    // Eleven blocks mined as fast as the CPU allows at the easiest target, retargeting every
+    // four: the target gets 4x harder at height 8, the most the clamp allows
+    private static void build() {
+        Blockchain.chain.clear();
+        Blockchain.initialBits = Target.fromLeadingZeros(0);
+        Blockchain.retargetInterval = INTERVAL;
+        String prev = "0";
+        for (int i = 0; i <= 10; i++) {
+            Block b = new Block("block " + i, prev);
+            Blockchain.addBlock(b);
+            prev = b.hash;
+        }
+    }
+
+    private static void restore(int initialBits, int interval, int threshold) {
+        Blockchain.chain.clear();
+        Blockchain.initialBits = initialBits;
+        Blockchain.retargetInterval = interval;
+        Blockchain.parallelAuditThreshold = threshold;
+    }
+
+    // Block i replaced by one with the same data and parent, mined at the given bits
+    private static void remine(int i, int bits) {
+        Block b = new Block("block " + i, Blockchain.chain.get(i - 1).hash);
+        b.mine(bits);
+        Blockchain.chain.set(i, b);
+    }
+
+    // Each block must claim the target the schedule gives its height, not just meet the one it
+    // claims; both the sequential and the fork-join audit
+    @Test
+    void auditFollowsTheRetargetSchedule() {
+        int initialBits = Blockchain.initialBits, interval = Blockchain.retargetInterval, threshold = Blockchain.parallelAuditThreshold;
+        try {
+            for (int t : new int[] { Integer.MAX_VALUE, 0 }) {
+                Blockchain.parallelAuditThreshold = t;
+                build();
+                int easy = Blockchain.chain.get(7).getBits(), hard = Blockchain.chain.get(8).getBits();
+                assertNotEquals(easy, hard, "retargeted at height 8");
+                assertEquals(hard, Blockchain.chain.get(10).getBits());
+                assertEquals(-1, Blockchain.audit());
+
+                remine(8, easy); // skips the retarget; a later block would not notice on its own
+                assertEquals(8, Blockchain.audit());
+                build();
+                remine(5, Target.fromLeadingZeros(1)); // more work than asked is still the wrong target
+                assertEquals(5, Blockchain.audit());
+            }
+        } finally {
+            restore(initialBits, interval, threshold);
+        }
+    }
+
+    // An unmined block claims bits 0, which the old check took as "no work to verify"
+    @Test
+    void unminedBlockIsRejected() {
+        int initialBits = Blockchain.initialBits, interval = Blockchain.retargetInterval, threshold = Blockchain.parallelAuditThreshold;
+        try {
+            build();
+            Block unmined = new Block("block 11", Blockchain.getLatestBlock().hash);
+            Blockchain.chain.add(unmined);
+            assertEquals(0, unmined.getBits());
+            assertEquals(11, Blockchain.audit());
+            assertFalse(Blockchain.isChainValid(false));
+        } finally {
+            restore(initialBits, interval, threshold);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+class ChainTest {
+
+    // Block hashes of three kinds: random, sharing their first 16 hex digits (so their index
+    // keys are equal and they probe from the same slot), and not hex at all
+    private static String hash(Random rnd, int serial) {
+        switch (rnd.nextInt(3)) {
+            case 0: return String.format("%016x%016x%032x", rnd.nextLong(), rnd.nextLong(), serial);
+            case 1: return String.format("00000000deadbeef%048x", serial);
+            default: return "block-" + serial;
+        }
+    }
+
+    private static SimpleNetworkSim.Block block(String hash) {
+        SimpleNetworkSim.Block b = new SimpleNetworkSim.Block("prev");
+        b.hash = hash;
+        return b;
+    }
+
+    private static void check(SimpleNetworkSim.Chain chain, List<SimpleNetworkSim.Block> removed) {
+        for (int h = 0; h < chain.blocks.size(); h++) {
+            SimpleNetworkSim.Block b = chain.blocks.get(h);
+            assertEquals(h, chain.height(b.hash), "height of " + b.hash);
+            assertSame(b, chain.get(b.hash));
+        }
+        for (SimpleNetworkSim.Block b : removed) {
+            assertEquals(-1, chain.height(b.hash), "removed " + b.hash);
+            assertNull(chain.get(b.hash));
+        }
+    }
+
+    // Random appends and tip removals against the block list itself, so the index grows, and
+    // backward-shift removal runs through probe runs full of equal keys
+    @Test
+    void indexMatchesBlockList() {
+        Random rnd = new Random(23);
+        SimpleNetworkSim.Chain chain = new SimpleNetworkSim.Chain(block("genesis"));
+        List<SimpleNetworkSim.Block> removed = new ArrayList<>();
+        for (int op = 0; op < 200_000; op++) {
+            boolean grow = op < 100_000 ? rnd.nextInt(100) < 60 : rnd.nextInt(100) < 40;
+            if (grow || chain.height() == 0) {
+                chain.append(block(hash(rnd, op)));
+            } else {
+                SimpleNetworkSim.Block tip = chain.blocks.get(chain.height());
+                assertSame(tip, chain.removeTip());
+                if (removed.size() < 2000) removed.add(tip);
+            }
+            if (op % 20_000 == 0) check(chain, removed);
+        }
+        check(chain, removed);
+        while (chain.height() > 0) chain.removeTip();
+        assertEquals(0, chain.height("genesis"));
+        check(chain, removed);
+    }
+
+    // Miners read the tip without the node's lock while its worker appends and reorgs
+    @Test
+    void tipIsSafeToReadWhileTheChainChanges() throws Exception {
+        SimpleNetworkSim.Chain chain = new SimpleNetworkSim.Chain(block("genesis"));
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread miner = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    if (chain.tipHash() == null) throw new AssertionError("null tip");
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        miner.start();
+        Random rnd = new Random(25);
+        for (int op = 0; op < 2_000_000; op++) {
+            synchronized (chain) {
+                if (chain.height() == 0 || rnd.nextBoolean()) chain.append(block("b" + op));
+                else chain.removeTip();
+            }
+        }
+        done.set(true);
+        miner.join();
+        assertNull(failure.get());
+    }
+
+    @Test
+    void unknownHashesAreNotOnTheChain() {
+        SimpleNetworkSim.Chain chain = new SimpleNetworkSim.Chain(block("genesis"));
+        chain.append(block("00000000deadbeef01"));
+        assertFalse(chain.contains("00000000deadbeef02"));
+        assertFalse(chain.contains(""));
+        assertEquals(1, chain.height("00000000deadbeef01"));
+        assertEquals("00000000deadbeef01", chain.tipHash());
+    }
+}
@@ -0,0 +1,206 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MappedUtxoSetTest {
+    private static final int SECTOR = 512;
+
+    @TempDir
+    Path dir;
+
+    private static SimpleNetworkSim.TXOut out(String owner, int amount) {
+        SimpleNetworkSim.TXOut out = new SimpleNetworkSim.TXOut();
+        out.owner = owner;
+        out.amount = amount;
+        return out;
+    }
+
+    // One block's worth of random puts, updates and removes, some of them on the same key
+    private static void changes(Random rnd, SimpleNetworkSim.UtxoSet set, Map<String, Integer> model, int keys, int ops) {
+        for (int i = 0; i < ops; i++) {
+            String id = "tx" + rnd.nextInt(keys);
+            int index = rnd.nextInt(3);
+            String key = id + ":" + index;
+            if (rnd.nextInt(100) < 60) {
+                int amount = rnd.nextInt(1_000_000);
+                set.put(id, index, out("owner" + amount % 97, amount));
+                model.put(key, amount);
+            } else {
+                SimpleNetworkSim.TXOut old = set.remove(id, index);
+                Integer expected = model.remove(key);
+                assertEquals(expected, old == null ? null : old.amount, "remove " + key);
+            }
+        }
+    }
+
+    private static void check(MappedUtxoSet set, Map<String, Integer> model) {
+        assertEquals(model.size(), set.size(), "size");
+        for (Map.Entry<String, Integer> e : model.entrySet()) {
+            String[] k = e.getKey().split(":");
+            SimpleNetworkSim.TXOut out = set.get(k[0], Integer.parseInt(k[1]));
+            assertEquals(e.getValue(), out == null ? null : out.amount, "get " + e.getKey());
+            assertEquals("owner" + e.getValue() % 97, out.owner, "owner of " + e.getKey());
+        }
+        List<String> keys = set.keys();
+        assertEquals(model.size(), keys.size(), "keys, duplicates included");
+        assertEquals(model.keySet(), new HashSet<>(keys), "keys");
+    }
+
+    // Enough removes over a small key space that tombstones force same-size rehashes, and
+    // enough keys that the table doubles
+    @Test
+    void fuzzAgainstHashMapWithReopens() throws IOException {
+        Random rnd = new Random(13);
+        Map<String, Integer> model = new HashMap<>();
+        MappedUtxoSet set = MappedUtxoSet.open(dir);
+        for (int block = 0; block < 300; block++) {
+            changes(rnd, set, model, block < 150 ? 20_000 : 40_000, 600);
+            set.commit("block" + block);
+            if (block % 25 == 0) {
+                set.close();
+                set = MappedUtxoSet.open(dir);
+                assertEquals("block" + block, set.tip());
+            }
+            if (block % 50 == 0) check(set, model);
+        }
+        check(set, model);
+        set.close();
+    }
+
+    // Removing everything leaves the table full of tombstones; new keys then push live plus
+    // dead past the load limit, and the rehash drops the dead records without doubling
+    @Test
+    void tombstonesAreDroppedByRehash() throws IOException {
+        Path table = dir.resolve("utxo.table");
+        Map<String, Integer> model = new HashMap<>();
+        MappedUtxoSet set = MappedUtxoSet.open(dir);
+        long initial = Files.size(table);
+        for (int i = 0; i < 40_000; i++) set.put("old" + i, 0, out("owner" + i % 97, i));
+        set.commit("full");
+        for (int i = 0; i < 40_000; i++) set.remove("old" + i, 0);
+        set.commit("empty");
+        for (int i = 0; i < 30_000; i++) {
+            set.put("new" + i, 1, out("owner" + i % 97, i));
+            model.put("new" + i + ":1", i);
+        }
+        set.commit("refilled");
+        assertEquals(initial, Files.size(table), "same capacity");
+        check(set, model);
+        set.close();
+        set = MappedUtxoSet.open(dir);
+        check(set, model);
+        set.close();
+    }
+
+    // Crash harness: the journal is forced before the table is touched, and then any mix of
+    // the table's sectors, header included, may have reached the disk before the crash.
+    // Opening such a table with the journal must give exactly the committed state.
+    @Test
+    void tornApplyIsFinishedOnOpen() throws IOException {
+        Random rnd = new Random(14);
+        Path table = dir.resolve("utxo.table"), journal = dir.resolve("utxo.journal");
+        Map<String, Integer> model = new HashMap<>();
+        MappedUtxoSet set = MappedUtxoSet.open(dir);
+        changes(rnd, set, model, 3000, 6000);
+        set.commit("base");
+        set.close();
+        byte[] before = Files.readAllBytes(table);
+        Map<String, Integer> baseModel = new HashMap<>(model);
+
+        set = MappedUtxoSet.open(dir);
+        changes(rnd, set, model, 3000, 2000);
+        set.writeJournal("next");
+        set.close();
+        byte[] redo = Files.readAllBytes(journal);
+        assertTrue(Arrays.equals(before, Files.readAllBytes(table)), "table untouched before apply");
+
+        set = MappedUtxoSet.open(dir); // replays the journal onto the old table
+        assertEquals("next", set.tip());
+        check(set, model);
+        set.close();
+        byte[] after = Files.readAllBytes(table);
+        assertEquals(before.length, after.length, "no rehash in this batch");
+
+        for (int trial = 0; trial < 40; trial++) {
+            byte[] torn = new byte[after.length];
+            for (int off = 0; off < torn.length; off += SECTOR) {
+                boolean applied = trial == 1 || trial > 1 && rnd.nextBoolean(); // 0: none, 1: all
+                System.arraycopy(applied ? after : before, off, torn, off, Math.min(SECTOR, torn.length - off));
+            }
+            Files.write(table, torn);
+            Files.write(journal, redo);
+            set = MappedUtxoSet.open(dir);
+            assertEquals("next", set.tip(), "trial " + trial);
+            check(set, model);
+            set.close();
+            assertFalse(Files.exists(journal), "journal dropped");
+        }
+
+        // A torn journal was never applied: the old state stands
+        Files.write(table, before);
+        Files.write(journal, Arrays.copyOf(redo, redo.length / 2));
+        set = MappedUtxoSet.open(dir);
+        assertEquals("base", set.tip());
+        check(set, baseModel);
+        set.close();
+    }
+
+    // Removed keys stay gone across a commit and a reopen, and put back ones come back once
+    @Test
+    void removeThenPutInOneCommit() throws IOException {
+        MappedUtxoSet set = MappedUtxoSet.open(dir);
+        set.put("a", 0, out("alice", 5));
+        set.put("b", 0, out("bob", 6));
+        set.commit("t1");
+        set.remove("a", 0);
+        set.put("a", 0, out("alice", 7));
+        set.remove("b", 0);
+        set.commit("t2");
+        set.close();
+        set = MappedUtxoSet.open(dir);
+        assertEquals(7, set.get("a", 0).amount);
+        assertNull(set.get("b", 0));
+        assertEquals(List.of("a:0"), set.keys());
+        set.close();
+    }
+
+    // Ids over 15 chars are stored hashed, so keys() cannot name them for a remove; clear()
+    // drops them with everything else, and the emptied table starts small again
+    @Test
+    void clearDropsEveryKey() throws IOException {
+        Path table = dir.resolve("utxo.table");
+        MappedUtxoSet set = MappedUtxoSet.open(dir);
+        long initial = Files.size(table);
+        for (int i = 0; i < 60_000; i++) set.put("a-long-transaction-id-" + i, 0, out("owner", i));
+        set.commit("full");
+        set.put("short", 0, out("owner", 1));
+        assertTrue(Files.size(table) > initial, "grown");
+        set.clear();
+        assertEquals(0, set.size());
+        assertNull(set.tip());
+        assertNull(set.get("a-long-transaction-id-7", 0));
+        assertEquals(List.of(), set.keys());
+        set.put("short", 0, out("owner", 2));
+        set.commit("rebuilt");
+        set.close();
+        set = MappedUtxoSet.open(dir);
+        assertEquals("rebuilt", set.tip());
+        assertEquals(List.of("short:0"), set.keys());
+        assertEquals(initial, Files.size(table), "back to the initial capacity");
+        set.close();
+    }
+}
@@ -0,0 +1,349 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class NodeTest {
+
+    @TempDir
+    Path dir;
+
+    private static SimpleNetworkSim.TXOut out(String owner, int amount) {
+        SimpleNetworkSim.TXOut out = new SimpleNetworkSim.TXOut();
+        out.owner = owner;
+        out.amount = amount;
+        return out;
+    }
+
+    // Spends "funding":0, owned by Alice, into the given outputs, signed
+    private static SimpleNetworkSim.Transaction spend(SimpleNetworkSim.TXOut... outputs) {
+        return spend(0, outputs);
+    }
+
+    private static SimpleNetworkSim.Transaction spend(int index, SimpleNetworkSim.TXOut... outputs) {
+        SimpleNetworkSim.Transaction tx = new SimpleNetworkSim.Transaction();
+        SimpleNetworkSim.TXIn in = new SimpleNetworkSim.TXIn();
+        in.prevTxId = "funding";
+        in.prevIndex = index;
+        in.owner = "Alice";
+        tx.inputs.add(in);
+        for (SimpleNetworkSim.TXOut o : outputs) tx.outputs.add(o);
+        SimpleNetworkSim.Wallet.sign(tx);
+        return tx;
+    }
+
+    // Spends parent's output index, owned by owner, into one output to Carol
+    private static SimpleNetworkSim.Transaction child(SimpleNetworkSim.Transaction parent, int index, String owner, int amount) {
+        SimpleNetworkSim.Transaction tx = new SimpleNetworkSim.Transaction();
+        SimpleNetworkSim.TXIn in = new SimpleNetworkSim.TXIn();
+        in.prevTxId = parent.id;
+        in.prevIndex = index;
+        in.owner = owner;
+        tx.inputs.add(in);
+        tx.outputs.add(out("Carol", amount));
+        SimpleNetworkSim.Wallet.sign(tx);
+        return tx;
+    }
+
+    private static SimpleNetworkSim.Node funded() {
+        SimpleNetworkSim.Node node = new SimpleNetworkSim.Node("N", new SimpleNetworkSim.Chain(new SimpleNetworkSim.Block("0")));
+        node.utxo.put("funding", 0, out("Alice", 100));
+        return node;
+    }
+
+    private static SimpleNetworkSim.Block mined(SimpleNetworkSim.Node node, SimpleNetworkSim.Transaction... txs) {
+        SimpleNetworkSim.Block b = new SimpleNetworkSim.Block(node.chain.tipHash(), node.chain.bits);
+        b.txs.addAll(List.of(txs));
+        b.commitTxs();
+        byte[] target = Target.expand(b.bits);
+        while (!Target.meets(b.hashBytes, 0, target)) {
+            b.nonce++;
+            b.hashHeader();
+        }
+        b.recalc();
+        return b;
+    }
+
+    @Test
+    void feeIsInputsMinusOutputs() throws Exception {
+        SimpleNetworkSim.Node node = funded();
+        assertEquals(10, node.fee(spend(out("Bob", 60), out("Alice", 30))));
+        assertEquals(0, node.fee(spend(out("Bob", 100))));
+        assertEquals(-1, node.fee(spend(out("Bob", 101))));
+        node.close();
+    }
+
+    // A negative output must not pay for a larger one, nor raise the fee
+    @Test
+    void negativeOutputIsRejected() throws Exception {
+        SimpleNetworkSim.Node node = funded();
+        SimpleNetworkSim.Transaction mint = spend(out("Bob", 1_000_000), out("Mallory", -1_000_000));
+        assertEquals(-1, node.fee(mint));
+        assertEquals(-1, node.fee(spend(out("Bob", 50), out("Mallory", -50))));
+        node.receiveTx(mint);
+        assertFalse(node.mempool.contains(mint.id), "admitted to the mempool");
+        node.close();
+    }
+
+    // Blocks check amounts too, not just that the inputs exist
+    @Test
+    void blockPayingOutMoreThanItSpendsIsRejected() throws Exception {
+        SimpleNetworkSim.Node node = funded();
+        assertFalse(node.receiveBlock(mined(node, spend(out("Bob", 1_000_000), out("Mallory", -1_000_000)))));
+        assertFalse(node.receiveBlock(mined(node, spend(out("Bob", 101)))));
+        assertEquals(0, node.chain.height());
+        assertTrue(node.receiveBlock(mined(node, spend(out("Bob", 99)))));
+        assertEquals(1, node.chain.height());
+        assertNull(node.utxo.get("funding", 0));
+        node.close();
+    }
+
+    // Gossip can deliver a child before its parent; the child waits and gets in after it, and so
+    // does a grandchild waiting on the child
+    @Test
+    void orphansAreAdoptedWhenTheParentArrives() throws Exception {
+        SimpleNetworkSim.Node node = funded();
+        SimpleNetworkSim.Transaction parent = spend(out("Bob", 100));
+        SimpleNetworkSim.Transaction kid = child(parent, 0, "Bob", 90);
+        SimpleNetworkSim.Transaction grandkid = child(kid, 0, "Carol", 80);
+        node.receiveTx(grandkid);
+        node.receiveTx(kid);
+        assertEquals(0, node.mempool.size());
+        assertEquals(2, node.orphans.size());
+        node.receiveTx(parent);
+        assertTrue(node.mempool.contains(kid.id) && node.mempool.contains(grandkid.id), "orphans adopted");
+        assertEquals(0, node.orphans.size());
+        node.close();
+    }
+
+    // A parent this node first sees in a block frees its orphans too
+    @Test
+    void orphansAreAdoptedWhenTheParentConfirms() throws Exception {
+        SimpleNetworkSim.Node node = funded();
+        SimpleNetworkSim.Transaction parent = spend(out("Bob", 100));
+        SimpleNetworkSim.Transaction kid = child(parent, 0, "Bob", 90);
+        node.receiveTx(kid);
+        assertTrue(node.orphans.contains(kid.id));
+        assertTrue(node.receiveBlock(mined(node, parent)));
+        assertTrue(node.mempool.contains(kid.id), "orphan adopted");
+        node.close();
+    }
+
+    // Invalid txs are not kept, and the pool drops its oldest orphans when full
+    @Test
+    void orphanPoolIsBounded() throws Exception {
+        SimpleNetworkSim.Node node = funded();
+        node.receiveTx(spend(out("Bob", 101)));
+        assertEquals(0, node.orphans.size());
+        SimpleNetworkSim.OrphanPool pool = new SimpleNetworkSim.OrphanPool(2);
+        SimpleNetworkSim.Transaction parent = spend(out("Bob", 100));
+        SimpleNetworkSim.Transaction a = child(parent, 0, "Bob", 1), b = child(parent, 0, "Bob", 2), c = child(parent, 1, "Bob", 3);
+        pool.add(a, parent.id);
+        pool.add(b, parent.id);
+        pool.add(c, parent.id);
+        assertEquals(2, pool.size());
+        assertFalse(pool.contains(a.id));
+        assertEquals(List.of(b, c), pool.take(parent.id));
+        assertEquals(0, pool.size());
+        node.close();
+    }
+
+    // Outputs (Bob, 60), (Eve, 40) and the single output ("Bob:60|Eve", 40) once joined into the same
+    // string; the leaf must tell them apart, or a relayer could swap one for the other under the
+    // block's hash
+    @Test
+    void leafCommitsToFieldBoundaries() {
+        SimpleNetworkSim.Transaction split = spend(out("Bob", 60), out("Eve", 40));
+        SimpleNetworkSim.Transaction joined = new SimpleNetworkSim.Transaction();
+        joined.id = split.id;
+        joined.inputs.addAll(split.inputs);
+        joined.outputs.add(out("Bob:60|Eve", 40));
+        assertFalse(Arrays.equals(SimpleNetworkSim.merkleRoot(List.of(split)), SimpleNetworkSim.merkleRoot(List.of(joined))));
+    }
+
+    // A relayer appending a copy of the last tx keeps the Merkle root, and so the block hash, since
+    // an odd node pairs with itself; the copy must not get the block connected
+    @Test
+    void blockRepeatingATxIsRejected() throws Exception {
+        SimpleNetworkSim.Node node = funded();
+        node.utxo.put("funding", 1, out("Alice", 100));
+        node.utxo.put("funding", 2, out("Alice", 100));
+        SimpleNetworkSim.Transaction a = spend(0, out("Bob", 100)), b = spend(1, out("Carol", 100)), c = spend(2, out("Dave", 100));
+        SimpleNetworkSim.Block block = mined(node, a, b, c);
+        block.txs.add(c);
+        assertTrue(block.isWellFormed(), "same root and hash with the copy");
+        assertFalse(node.receiveBlock(block));
+        block.txs.remove(3);
+        assertTrue(node.receiveBlock(block));
+        node.close();
+    }
+
+    private static String runMain(String... args) throws Exception {
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true));
+        try {
+            SimpleNetworkSim.main(args);
+        } finally {
+            System.setOut(stdout);
+        }
+        return captured.toString();
+    }
+
+    // A second run starts from the same genesis and finds each node's headers next to its UTXO
+    // set, so it picks the stored state up instead of rebuilding it; a torn header record left by
+    // a crash is dropped, and the state it would have led to is not reused
+    @Test
+    void restartReopensTheStoredState() throws Exception {
+        assertEquals(SimpleNetworkSim.Block.genesis().hash, SimpleNetworkSim.Block.genesis().hash);
+        runMain(dir.toString());
+        String second = runMain(dir.toString());
+        for (String node : List.of("A", "B", "C")) assertTrue(second.contains("[" + node + "] reopened"), second);
+        assertFalse(second.contains("rebuilding"), second);
+
+        SimpleNetworkSim.SharedUtxoSet base = new SimpleNetworkSim.SharedUtxoSet();
+        base.put("genesis", 0, out("Alice", 100));
+        SimpleNetworkSim.Block genesis = SimpleNetworkSim.Block.genesis();
+        base.commit(genesis.hash);
+        String[] args = { dir.toString() };
+        SimpleNetworkSim.Chain chain = new SimpleNetworkSim.Chain(genesis);
+        SimpleNetworkSim.Node node = SimpleNetworkSim.newNode("A", chain, base, args);
+        int height = chain.height();
+        assertTrue(height > 0, "headers reloaded");
+        assertEquals(chain.tipHash(), node.utxo.tip());
+        node.close();
+
+        Path headers = dir.resolve("A").resolve("headers");
+        long size = Files.size(headers);
+        Files.write(headers, new byte[] { 0, 0, 0, 120, 1, 2, 3 }, StandardOpenOption.APPEND);
+        chain = new SimpleNetworkSim.Chain(genesis);
+        node = SimpleNetworkSim.newNode("A", chain, base, args);
+        assertEquals(height, chain.height());
+        assertEquals(size, Files.size(headers), "torn record dropped");
+        node.close();
+
+        try (FileChannel ch = FileChannel.open(headers, StandardOpenOption.WRITE)) {
+            ch.truncate(size - 1); // the tip's header lost: the stored UTXOs are ahead of the chain
+        }
+        chain = new SimpleNetworkSim.Chain(genesis);
+        node = SimpleNetworkSim.newNode("A", chain, base, args);
+        assertEquals(0, chain.height());
+        assertEquals(genesis.hash, node.utxo.tip());
+        assertEquals(List.of("genesis:0"), node.utxo.keys());
+        assertEquals(0, Files.size(headers));
+        node.close();
+    }
+
+    // Nodes forked from one base that connect the same block end up holding one map between
+    // them, not a path copy each
+    @Test
+    void nodesConnectingOneBlockShareTheResultingState() throws Exception {
+        SimpleNetworkSim.Block genesis = SimpleNetworkSim.Block.genesis();
+        SimpleNetworkSim.SharedUtxoSet base = new SimpleNetworkSim.SharedUtxoSet();
+        base.put("funding", 0, out("Alice", 100));
+        base.commit(genesis.hash);
+        List<SimpleNetworkSim.Node> nodes = new ArrayList<>();
+        for (int i = 0; i < 5; i++) nodes.add(new SimpleNetworkSim.Node("N" + i, new SimpleNetworkSim.Chain(genesis), base.fork()));
+        SimpleNetworkSim.Transaction tx = spend(out("Bob", 100));
+        SimpleNetworkSim.Block block = mined(nodes.get(0), tx);
+        for (SimpleNetworkSim.Node node : nodes) assertTrue(node.receiveBlock(block));
+        PersistentOutpointMap<SimpleNetworkSim.TXOut> state = ((SimpleNetworkSim.SharedUtxoSet) nodes.get(0).utxo).map;
+        assertNull(state.get("funding", 0));
+        assertEquals(100, state.get(tx.id, 0).amount);
+        for (SimpleNetworkSim.Node node : nodes) {
+            assertSame(state, ((SimpleNetworkSim.SharedUtxoSet) node.utxo).map, node.name);
+            node.close();
+        }
+    }
+
+    // A tx is named after what it spends and pays, so a relayer cannot rename it, and an id that
+    // collides with one whose outputs are unspent does not get them overwritten
+    @Test
+    void txIdIsItsContentHash() throws Exception {
+        SimpleNetworkSim.Node node = funded();
+        SimpleNetworkSim.Transaction tx = spend(out("Bob", 100));
+        assertEquals(tx.derivedId(), tx.id);
+        assertEquals(SimpleNetworkSim.Transaction.ID_HEX, tx.id.length());
+        assertEquals(tx.id, spend(out("Bob", 100)).id, "same content, same id");
+        assertFalse(tx.id.equals(spend(out("Bob", 99)).id));
+
+        String own = tx.id;
+        tx.id = "renamed";
+        assertEquals(-1, node.fee(tx));
+        assertFalse(node.receiveBlock(mined(node, tx)));
+        tx.id = own;
+
+        node.utxo.put(tx.id, 0, out("Carol", 5)); // as if an earlier tx had drawn the same id
+        assertEquals(-1, node.fee(tx));
+        assertFalse(node.receiveBlock(mined(node, tx)));
+        assertEquals(5, node.utxo.get(tx.id, 0).amount);
+        node.utxo.remove(tx.id, 0);
+        assertTrue(node.receiveBlock(mined(node, tx)));
+        node.close();
+    }
+
+    // Signatures cover the same length-prefixed encoding as the leaf: with (Bob, 60), (Eve, 40)
+    // rewritten to ("Bob:60|Eve", 40), and the id recomputed to match, the old signature fails and
+    // the tx does not turn a 0 fee into 60
+    @Test
+    void changingAnOutputInvalidatesTheSignature() throws Exception {
+        SimpleNetworkSim.Node node = funded();
+        SimpleNetworkSim.Transaction tx = spend(out("Bob", 60), out("Eve", 40));
+        assertEquals(0, node.fee(tx));
+        byte[] signed = tx.sighash();
+        tx.outputs.clear();
+        tx.outputs.add(out("Bob:60|Eve", 40));
+        tx.id = tx.derivedId();
+        assertFalse(Arrays.equals(signed, tx.sighash()));
+        assertFalse(node.signedBy(tx.sighash(), 0, tx.inputs.get(0), out("Alice", 100)));
+        assertEquals(-1, node.fee(tx));
+
+        SimpleNetworkSim.Transaction raised = spend(out("Bob", 50));
+        raised.outputs.get(0).amount = 100;
+        raised.id = raised.derivedId();
+        assertEquals(-1, node.fee(raised));
+        assertFalse(node.receiveBlock(mined(node, raised)));
+        node.close();
+    }
+
+    // A tx spending an output its known parent no longer has, or never had, will not get in by
+    // waiting: a double-spend of a confirmed output is dropped, not held in the orphan pool
+    @Test
+    void confirmedDoubleSpendIsNotHeld() throws Exception {
+        SimpleNetworkSim.Node node = funded();
+        SimpleNetworkSim.Transaction parent = spend(out("Bob", 100));
+        assertTrue(node.receiveBlock(mined(node, parent)));
+        assertTrue(node.receiveBlock(mined(node, child(parent, 0, "Bob", 90))));
+        SimpleNetworkSim.Transaction doubleSpend = child(parent, 0, "Bob", 80);
+        node.receiveTx(doubleSpend);
+        node.receiveTx(child(parent, 1, "Bob", 1)); // no such output
+        assertFalse(node.mempool.contains(doubleSpend.id));
+        assertEquals(0, node.orphans.size());
+
+        node.utxo.put("funding", 1, out("Alice", 100));
+        SimpleNetworkSim.Transaction pending = spend(1, out("Dave", 100));
+        node.receiveTx(pending);
+        assertTrue(node.mempool.contains(pending.id));
+        node.receiveTx(child(pending, 1, "Dave", 1)); // a mempool parent's missing output
+        assertEquals(0, node.orphans.size());
+
+        SimpleNetworkSim.Transaction unknown = spend(2, out("Eve", 100));
+        node.receiveTx(child(unknown, 0, "Eve", 1)); // parent not seen yet: still held
+        assertEquals(1, node.orphans.size());
+        node.close();
+    }
+}
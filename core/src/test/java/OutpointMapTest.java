@@ -0,0 +1,95 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class OutpointMapTest {
+
+    // Packable ids of every length up to 15, ids too long to pack and non-ASCII ids, which are hashed
+    private static List<String> ids(Random rnd, int n) {
+        List<String> ids = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            switch (i % 4) {
+                case 0: ids.add(Integer.toHexString(rnd.nextInt())); break;
+                case 1: ids.add(("tx" + i + "-abcdefghijklmnop").substring(0, 1 + i % 15)); break;
+                case 2: ids.add("a-long-transaction-id-" + i); break;
+                default: ids.add("été" + i); break;
+            }
+        }
+        return ids;
+    }
+
+    // Random puts, removes and gets against a HashMap, with a small key space so probe runs
+    // wrap around the table and backward-shift deletion is exercised constantly
+    @Test
+    void fuzzAgainstHashMap() {
+        Random rnd = new Random(12);
+        List<String> ids = ids(rnd, 2000);
+        OutpointMap<Integer> map = new OutpointMap<>();
+        Map<String, Integer> model = new HashMap<>();
+        for (int op = 0; op < 2_000_000; op++) {
+            String id = ids.get(rnd.nextInt(ids.size()));
+            int index = rnd.nextInt(4);
+            String key = id + ":" + index;
+            int r = rnd.nextInt(100);
+            if (r < 50) {
+                assertEquals(model.put(key, op), map.put(id, index, op), "put " + key);
+            } else if (r < 85) {
+                assertEquals(model.remove(key), map.remove(id, index), "remove " + key);
+            } else {
+                assertEquals(model.get(key), map.get(id, index), "get " + key);
+            }
+            if (op % 250_000 == 0) check(map, model);
+            if (op == 1_000_000) {
+                map.clear();
+                model.clear();
+            }
+        }
+        check(map, model);
+    }
+
+    private static void check(OutpointMap<Integer> map, Map<String, Integer> model) {
+        assertEquals(model.size(), map.size(), "size");
+        for (Map.Entry<String, Integer> e : model.entrySet()) {
+            int colon = e.getKey().lastIndexOf(':');
+            String id = e.getKey().substring(0, colon);
+            int index = Integer.parseInt(e.getKey().substring(colon + 1));
+            assertEquals(e.getValue(), map.get(id, index), "get " + e.getKey());
+        }
+        int[] visited = { 0 };
+        map.forEach((hi, lo, index, v) -> visited[0]++);
+        assertEquals(model.size(), visited[0], "entries visited");
+    }
+
+    @Test
+    void packedIdsRoundTrip() {
+        Random rnd = new Random(3);
+        for (String id : ids(rnd, 400)) {
+            String back = OutpointMap.idOf(OutpointMap.packHi(id), OutpointMap.packLo(id));
+            boolean packable = id.length() <= 15 && id.chars().allMatch(c -> c > 0 && c < 0x80);
+            if (packable) assertEquals(id, back);
+            else assertTrue(back.startsWith("#"), "hashed id " + id + " shown as " + back);
+        }
+    }
+
+    // Long ids that share their first 15 chars must still be different keys
+    @Test
+    void hashedIdsDoNotCollideOnPrefix() {
+        OutpointMap<String> map = new OutpointMap<>();
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            String id = "same-prefix-0123456789-" + i;
+            assertNull(map.put(id, 0, id));
+            ids.add(id);
+        }
+        assertEquals(1000, map.size());
+        for (String id : ids) assertEquals(id, map.get(id, 0));
+    }
+}
@@ -0,0 +1,135 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class PersistentOutpointMapTest {
+    private static final long C1 = 0x9E3779B97F4A7C15L, C2 = 0xC2B2AE3D27D4EB4FL; // OutpointMap.hash
+
+    // n keys with the same index whose hi * C1 ^ lo * C2 is equal, so OutpointMap.hash gives
+    // them all the same 32 bits; C1 is odd, so hi can be solved for any lo
+    private static List<long[]> colliding(Random rnd, int n) {
+        long inverse = C1;
+        for (int i = 0; i < 5; i++) inverse *= 2 - C1 * inverse;
+        long index = rnd.nextInt(4), mixed = rnd.nextLong();
+        List<long[]> keys = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            long lo = rnd.nextLong() | 0xFF; // marked hashed, as OutpointMap packs long ids
+            long hi = (mixed ^ lo * C2) * inverse;
+            keys.add(new long[] { hi, lo, index });
+        }
+        int hash = OutpointMap.hash(keys.get(0)[0], keys.get(0)[1], (int) index);
+        for (long[] k : keys) assertEquals(hash, OutpointMap.hash(k[0], k[1], (int) k[2]), "colliding hash");
+        return keys;
+    }
+
+    private static String name(long hi, long lo, long index) {
+        return hi + "/" + lo + ":" + index;
+    }
+
+    private static String name(long[] k) {
+        return name(k[0], k[1], k[2]);
+    }
+
+    private static List<long[]> keys(Random rnd) {
+        List<long[]> keys = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            String id = i % 2 == 0 ? Integer.toHexString(rnd.nextInt()) : "a-long-transaction-id-" + i;
+            keys.add(new long[] { OutpointMap.packHi(id), OutpointMap.packLo(id), i % 4 });
+        }
+        for (int g = 0; g < 100; g++) keys.addAll(colliding(rnd, 2 + g % 4));
+        return keys;
+    }
+
+    private static void check(PersistentOutpointMap<Integer> map, Map<String, Integer> model) {
+        assertEquals(model.size(), map.size(), "size");
+        Map<String, Integer> seen = new HashMap<>();
+        map.forEach((hi, lo, index, v) -> assertNull(seen.put(name(hi, lo, index), v), "visited twice"));
+        assertEquals(model, seen, "entries");
+    }
+
+    // Random with/without/get against a HashMap, over a key space that includes groups of up
+    // to five keys with equal hashes, so collision nodes form, grow, shrink back to a leaf and
+    // branches collapse on the way; older versions must never change
+    @Test
+    void fuzzAgainstHashMap() {
+        Random rnd = new Random(15);
+        List<long[]> keys = keys(rnd);
+        PersistentOutpointMap<Integer> map = PersistentOutpointMap.empty();
+        Map<String, Integer> model = new HashMap<>();
+        List<PersistentOutpointMap<Integer>> versions = new ArrayList<>();
+        List<Map<String, Integer>> models = new ArrayList<>();
+        for (int op = 0; op < 500_000; op++) {
+            long[] k = keys.get(rnd.nextInt(keys.size()));
+            String key = name(k);
+            int r = rnd.nextInt(100);
+            if (r < 45) {
+                PersistentOutpointMap<Integer> next = map.with(k[0], k[1], (int) k[2], op);
+                model.put(key, op);
+                map = next;
+            } else if (r < 85) {
+                PersistentOutpointMap<Integer> next = map.without(k[0], k[1], (int) k[2]);
+                if (!model.containsKey(key)) assertSame(map, next, "without of a missing key");
+                model.remove(key);
+                map = next;
+            } else {
+                assertEquals(model.get(key), map.get(k[0], k[1], (int) k[2]), "get " + key);
+            }
+            if (op % 50_000 == 0) {
+                check(map, model);
+                versions.add(map);
+                models.add(new HashMap<>(model));
+            }
+        }
+        check(map, model);
+        for (int i = 0; i < versions.size(); i++) check(versions.get(i), models.get(i));
+    }
+
+    // A collision node holding every key of a group, emptied one key at a time in each order
+    @Test
+    void collisionGroupDrainsInAnyOrder() {
+        Random rnd = new Random(16);
+        List<long[]> group = colliding(rnd, 4);
+        int[][] orders = { { 0, 1, 2, 3 }, { 3, 2, 1, 0 }, { 1, 3, 0, 2 }, { 2, 0, 3, 1 } };
+        for (int[] order : orders) {
+            PersistentOutpointMap<Integer> map = PersistentOutpointMap.<Integer>empty().with("neighbour", 0, -1);
+            Map<String, Integer> model = new HashMap<>();
+            model.put(name(OutpointMap.packHi("neighbour"), OutpointMap.packLo("neighbour"), 0), -1);
+            for (int i = 0; i < group.size(); i++) {
+                long[] k = group.get(i);
+                map = map.with(k[0], k[1], (int) k[2], i);
+                model.put(name(k), i);
+            }
+            check(map, model);
+            for (int i : order) {
+                long[] k = group.get(i);
+                map = map.without(k[0], k[1], (int) k[2]);
+                model.remove(name(k));
+                check(map, model);
+                for (long[] other : group) {
+                    assertEquals(model.get(name(other)), map.get(other[0], other[1], (int) other[2]), "get " + name(other));
+                }
+            }
+            assertEquals(List.of("neighbour:0"), map.keys());
+        }
+    }
+
+    // Replacing a value, or putting the same value again, keeps the size
+    @Test
+    void withReplacesInPlace() {
+        PersistentOutpointMap<Integer> map = PersistentOutpointMap.<Integer>empty().with("tx", 0, 1);
+        Integer two = 2;
+        PersistentOutpointMap<Integer> replaced = map.with("tx", 0, two);
+        assertEquals(1, replaced.size());
+        assertEquals(two, replaced.get("tx", 0));
+        assertEquals(Integer.valueOf(1), map.get("tx", 0));
+        assertSame(replaced, replaced.with("tx", 0, two));
+    }
+}
@@ -0,0 +1,68 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class UtxoMapTest {
+
+    private static SimpleNetworkSim.TXOut out(String owner, int amount) {
+        SimpleNetworkSim.TXOut out = new SimpleNetworkSim.TXOut();
+        out.owner = owner;
+        out.amount = amount;
+        return out;
+    }
+
+    private static String show(SimpleNetworkSim.TXOut out) {
+        return out == null ? null : out.owner + "=" + out.amount;
+    }
+
+    // Random puts, removes and gets against a HashMap over a small key space, so backward-shift
+    // deletion has to carry the amount and owner columns along with the key
+    @Test
+    void fuzzAgainstHashMap() {
+        Random rnd = new Random(12);
+        UtxoMap map = new UtxoMap();
+        Map<String, String> model = new HashMap<>();
+        for (int op = 0; op < 1_000_000; op++) {
+            String id = rnd.nextBoolean() ? Integer.toHexString(rnd.nextInt(3000)) : "a-long-transaction-id-" + rnd.nextInt(1000);
+            int index = rnd.nextInt(4);
+            String key = id + ":" + index;
+            int r = rnd.nextInt(100);
+            if (r < 50) {
+                SimpleNetworkSim.TXOut out = out("owner" + rnd.nextInt(50), op);
+                map.put(id, index, out);
+                model.put(key, show(out));
+            } else if (r < 85) {
+                assertEquals(model.remove(key), show(map.remove(id, index)), "remove " + key);
+            } else {
+                assertEquals(model.get(key), show(map.get(id, index)), "get " + key);
+                assertEquals(model.containsKey(key), map.contains(id, index), "contains " + key);
+            }
+            if (op % 250_000 == 0) assertEquals(model.size(), map.size(), "size");
+        }
+        assertEquals(model.size(), map.size(), "size");
+        assertEquals(model.size(), map.keys().size(), "keys");
+        for (String key : model.keySet()) {
+            int colon = key.lastIndexOf(':');
+            assertEquals(model.get(key), show(map.get(key.substring(0, colon), Integer.parseInt(key.substring(colon + 1)))), "get " + key);
+        }
+    }
+
+    // The map keeps no reference to what was put: get hands out a copy built from the columns
+    @Test
+    void valuesAreStoredByValue() {
+        UtxoMap map = new UtxoMap();
+        SimpleNetworkSim.TXOut put = out("Alice", 100);
+        map.put("tx", 0, put);
+        put.amount = 1;
+        SimpleNetworkSim.TXOut got = map.get("tx", 0);
+        assertNotSame(put, got);
+        assertEquals("Alice=100", show(got));
+        assertEquals(List.of("tx:0"), map.keys());
+    }
+}